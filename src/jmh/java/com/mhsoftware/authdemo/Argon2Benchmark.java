@@ -0,0 +1,64 @@
+package com.mhsoftware.authdemo;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of an Argon2id hash with the scalar and vector compression
+ * functions. Only built and run with the jmh profile:
+ *
+ * mvn -Pjmh verify
+ *
+ * Any JMH options can be passed with -Djmh.args, e.g. -Djmh.args="-p memory=65536".
+ *
+ * If the vector compression function isn't available, its runs fail in
+ * setup and JMH reports an error for them.
+ *
+ * @author gsexton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class Argon2Benchmark {
+
+    @Param({ "scalar", "vector" })
+    public String compression;
+
+    @Param({ "12", "4096" })
+    public int memory;
+
+    @Param({ "3" })
+    public int iterations;
+
+    @Param({ "1" })
+    public int parallelism;
+
+    private final byte[] password = "BenchmarkPassword".getBytes(StandardCharsets.UTF_8);
+    private final byte[] salt = "BenchmarkSaltBenchmark".getBytes(StandardCharsets.UTF_8);
+
+    @Setup
+    public void setup() {
+        if (!Argon2.useCompression(compression)) {
+            throw new IllegalStateException("The " + compression + " compression function isn't available on this runtime.");
+        }
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        return Argon2.hashRaw(password, salt, null, null, memory, iterations, parallelism, Argon2.DEFAULT_HASH_LENGTH);
+    }
+}
@@ -0,0 +1,70 @@
+package com.mhsoftware.authdemo;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A compact binary encoding of a UserAccount, for the places where YAML is
+ * too slow or too large (replication, for example).
+ *
+ * Strings are written with writeUTF() preceded by a presence flag, and dates
+ * as epoch milliseconds with Long.MIN_VALUE standing in for null.
+ *
+ * @author gsexton
+ */
+final class AccountCodec {
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private AccountCodec() {
+    }
+
+    static void writeAccount(DataOutput out, UserAccount user) throws IOException {
+        out.writeInt(user.userID);
+        writeString(out, user.userName);
+        writeString(out, user.fullName);
+        writeString(out, user.password);
+        writeString(out, user.emailAddress);
+        out.writeBoolean(user.enabled);
+        writeDate(out, user.lastSignin);
+        writeDate(out, user.pwdChangeDate);
+        out.writeInt(user.badLoginCount);
+        writeDate(out, user.lastBadSignin);
+    }
+
+    static UserAccount readAccount(DataInput in) throws IOException {
+        UserAccount user = new UserAccount();
+        user.userID = in.readInt();
+        user.userName = readString(in);
+        user.fullName = readString(in);
+        user.password = readString(in);
+        user.emailAddress = readString(in);
+        user.enabled = in.readBoolean();
+        user.lastSignin = readDate(in);
+        user.pwdChangeDate = readDate(in);
+        user.badLoginCount = in.readInt();
+        user.lastBadSignin = readDate(in);
+        return user;
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutput out, Date d) throws IOException {
+        out.writeLong(d == null ? NULL_DATE : d.getTime());
+    }
+
+    private static Date readDate(DataInput in) throws IOException {
+        long time = in.readLong();
+        return time == NULL_DATE ? null : new Date(time);
+    }
+}
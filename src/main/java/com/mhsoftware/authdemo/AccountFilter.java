@@ -0,0 +1,139 @@
+package com.mhsoftware.authdemo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Builds a filter on UserAccount fields from command options, for the bulk
+ * operations in AccountStore.
+ *
+ * The recognized criteria are:
+ *
+ * inactiveDays=N - Not used for N days: no sign in or password change (which
+ * is set when the account is created). This is AccountStore.lastActive(), so it
+ * agrees with the accounts that are moved to the cold tier.
+ *
+ * userNamePrefix=text - The userName starts with text.
+ *
+ * emailDomain=domain.com - The email address is in domain.com. Case is ignored.
+ *
+ * enabled=true|false - The account is (or isn't) enabled.
+ *
+ * minBadLoginCount=N - The bad login count is at least N.
+ *
+ * all - Every account. This must be given explicitly if there are no other
+ * criteria, so a typo doesn't turn into an operation on every account.
+ *
+ * All of the specified criteria must match.
+ *
+ * Any other option has to be one the command itself takes. Otherwise a
+ * misspelled criterion would just be left out, and the operation would apply
+ * to far more accounts than intended.
+ *
+ * @author gsexton
+ */
+public class AccountFilter implements Predicate<UserAccount> {
+
+    private final List<Predicate<UserAccount>> criteria = new ArrayList<>();
+    private final List<String> descriptions = new ArrayList<>();
+
+    private AccountFilter() {
+    }
+
+    /**
+     * Build a filter from the command options.
+     *
+     * @param commandOptions The other options the command takes, e.g. "dryRun".
+     *
+     * @throws IllegalArgumentException If there are no criteria, a value is invalid, or an
+     *         option is neither a criterion nor in commandOptions.
+     */
+    public static AccountFilter fromOptions(Map<String, String> options, String... commandOptions) {
+        return fromOptions(options, System.currentTimeMillis(), commandOptions);
+    }
+
+    static AccountFilter fromOptions(Map<String, String> options, long now, String... commandOptions) {
+        List<String> allowed = Arrays.asList(commandOptions);
+        AccountFilter filter = new AccountFilter();
+        for (Map.Entry<String, String> option: options.entrySet()) {
+            String value = option.getValue();
+            switch (option.getKey()) {
+            case "inactiveDays":
+            case "userNamePrefix":
+            case "emailDomain":
+            case "enabled":
+            case "minBadLoginCount":
+                if (value == null || value.trim().isEmpty()) {
+                    throw new IllegalArgumentException("--" + option.getKey() + " needs a value, e.g. --" + option.getKey() + "=...");
+                }
+                break;
+            }
+            switch (option.getKey()) {
+            case "inactiveDays":
+                long days = Long.parseLong(value);
+                if (days < 0) {
+                    throw new IllegalArgumentException("--inactiveDays can't be negative.");
+                }
+                Date cutoff = new Date(now - TimeUnit.DAYS.toMillis(days));
+                filter.add("inactiveDays=" + value, user -> AccountStore.lastActive(user) < cutoff.getTime());
+                break;
+            case "userNamePrefix":
+                filter.add("userNamePrefix=" + value, user -> user.userName != null && user.userName.startsWith(value));
+                break;
+            case "emailDomain":
+                String domain = "@" + value.trim().toLowerCase(Locale.ROOT);
+                filter.add("emailDomain=" + value, user -> {
+                    String email = AccountIndex.normalizeEmail(user.emailAddress);
+                    return email != null && email.endsWith(domain);
+                });
+                break;
+            case "enabled":
+                if (!value.equals("true") && !value.equals("false")) {
+                    throw new IllegalArgumentException("--enabled has to be true or false.");
+                }
+                boolean enabled = Boolean.parseBoolean(value);
+                filter.add("enabled=" + enabled, user -> user.enabled == enabled);
+                break;
+            case "minBadLoginCount":
+                int minBadLoginCount = Integer.parseInt(value);
+                filter.add("minBadLoginCount=" + minBadLoginCount, user -> user.badLoginCount >= minBadLoginCount);
+                break;
+            case "all":
+                filter.add("all", user -> true);
+                break;
+            default:
+                if (!allowed.contains(option.getKey())) {
+                    throw new IllegalArgumentException("--" + option.getKey() + " isn't a filter criterion, or an option of this command.");
+                }
+                break;
+            }
+        }
+        if (filter.criteria.isEmpty()) {
+            throw new IllegalArgumentException("No filter criteria were specified. Use --all to select every account.");
+        }
+        return filter;
+    }
+
+    private void add(String description, Predicate<UserAccount> criterion) {
+        descriptions.add(description);
+        criteria.add(criterion);
+    }
+
+    public boolean test(UserAccount user) {
+        for (Predicate<UserAccount> criterion: criteria) {
+            if (!criterion.test(user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String toString() {
+        return String.join(" and ", descriptions);
+    }
+}
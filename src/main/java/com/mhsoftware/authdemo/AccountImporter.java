@@ -0,0 +1,353 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Bulk import of accounts from a CSV or JSON-lines file.
+ *
+ * The file is read a line at a time. Rows are grouped into chunks, and each
+ * chunk is handed to a fork/join pool that validates the row, checks the
+ * password against the policy and hashes it with Argon2. Reading continues
+ * while earlier chunks are being hashed.
+ *
+ * Once all rows are processed, duplicates are rejected (in file order), and
+ * the good accounts are added with a single AccountStore.addAccounts() call.
+ * That allocates the userIDs as one block and writes the store file once.
+ * The store is locked from the check for existing accounts through the add,
+ * so an account added by someone else in the meantime is reported as an
+ * error in its row, rather than failing the whole import.
+ *
+ * Passwords are hashed with AuthenticationProviderImpl.setPassword(), so
+ * the only audit event for an imported account is its ACCOUNT_ADD.
+ *
+ * A row with a problem is reported with its line number and skipped. It
+ * doesn't stop the import.
+ *
+ * The recognized fields are userName, fullName, emailAddress, enabled,
+ * password, and passwordHash. A row must have exactly one of password or
+ * passwordHash. passwordHash is an already hashed Argon2 value, in the
+ * format produced by AuthenticationProviderImpl.
+ *
+ * CSV files must have a header row naming the columns. Quoted values may
+ * contain commas and doubled quotes, but not line breaks.
+ *
+ * JSON-lines files have one JSON object per line. SnakeYAML parses them,
+ * since JSON is (close enough to) a subset of YAML.
+ *
+ * @author gsexton
+ */
+public class AccountImporter {
+
+    /** The encoded form of an Argon2 hash: $argon2id$v=19$m=...,t=...,p=...$salt$hash */
+    private static final Pattern ARGON2_HASH = Pattern.compile("\\$argon2(id|i|d)\\$v=\\d+\\$m=\\d+,t=\\d+,p=\\d+\\$[A-Za-z0-9+/]+={0,2}\\$[A-Za-z0-9+/]+={0,2}");
+
+    /** The number of rows read before they're submitted for hashing. */
+    private static final int CHUNK_SIZE = 256;
+    /** Fork/join tasks smaller than this are processed directly. */
+    private static final int SPLIT_THRESHOLD = 8;
+
+    /** An error found while importing a row. */
+    public static class ImportError {
+        public final int line;
+        public final String userName;
+        public final String message;
+
+        ImportError(int line, String userName, String message) {
+            this.line = line;
+            this.userName = userName;
+            this.message = message;
+        }
+
+        public String toString() {
+            return "Line " + line + (userName == null ? "" : " (" + userName + ")") + ": " + message;
+        }
+    }
+
+    /** The outcome of an import. */
+    public static class ImportResult {
+        public int rowsRead;
+        public int imported;
+        public List<ImportError> errors = new ArrayList<>();
+    }
+
+    private static class ImportRow {
+        final int line;
+        final Map<String, String> fields;
+        UserAccount account;
+        String error;
+
+        ImportRow(int line, Map<String, String> fields) {
+            this.line = line;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Validate and hash a range of rows, splitting the range in half until it's small.
+     */
+    private class RowTask extends RecursiveAction {
+        private final List<ImportRow> rows;
+        private final int from, to;
+
+        RowTask(List<ImportRow> rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    ImportRow row = rows.get(i);
+                    try {
+                        processRow(row);
+                    } catch (RuntimeException re) {
+                        row.error = re.toString();
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTask(rows, from, mid), new RowTask(rows, mid, to));
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final AuthenticationProviderImpl ap;
+    private final AccountStore store;
+
+    public AccountImporter(PasswordPolicyValidator policyValidator, ForkJoinPool pool) {
+        this(AccountStore.getInstance(), policyValidator, pool);
+    }
+
+    /**
+     * @param store The store the accounts are added to.
+     */
+    public AccountImporter(AccountStore store, PasswordPolicyValidator policyValidator, ForkJoinPool pool) {
+        this.ap = new AuthenticationProviderImpl(policyValidator);
+        this.pool = pool;
+        this.store = store;
+    }
+
+    /**
+     * Import a file. The format is taken from the extension: .csv is CSV, anything else is JSON-lines.
+     */
+    public ImportResult importFile(File file) throws IOException {
+        boolean csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return importAccounts(reader, csv);
+        }
+    }
+
+    /**
+     * Import accounts from a reader.
+     *
+     * @param csv True if the input is CSV, false for JSON-lines.
+     */
+    public ImportResult importAccounts(Reader reader, boolean csv) throws IOException {
+        ImportResult result = new ImportResult();
+        List<ImportRow> rows = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        BufferedReader br = new BufferedReader(reader);
+        Yaml yaml = csv ? null : new Yaml(new SafeConstructor());
+        List<String> header = null;
+        List<ImportRow> chunk = new ArrayList<>(CHUNK_SIZE);
+        int lineNumber = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map<String, String> fields;
+            try {
+                if (csv) {
+                    List<String> values = parseCsvLine(line);
+                    if (header == null) {
+                        header = values;
+                        continue;
+                    }
+                    fields = new HashMap<>();
+                    for (int i = 0; i < header.size() && i < values.size(); i++) {
+                        fields.put(header.get(i).trim(), values.get(i));
+                    }
+                } else {
+                    fields = toFields(yaml.load(line));
+                }
+            } catch (RuntimeException re) {
+                result.errors.add(new ImportError(lineNumber, null, "Unable to parse the line. " + re.getMessage()));
+                continue;
+            }
+            ImportRow row = new ImportRow(lineNumber, fields);
+            rows.add(row);
+            chunk.add(row);
+            if (chunk.size() == CHUNK_SIZE) {
+                tasks.add(pool.submit(new RowTask(chunk, 0, chunk.size())));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            tasks.add(pool.submit(new RowTask(chunk, 0, chunk.size())));
+        }
+        for (ForkJoinTask<?> task: tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("The import was interrupted.", ie);
+            } catch (ExecutionException ee) {
+                throw new RuntimeException(ee.getCause());
+            }
+        }
+        result.rowsRead = rows.size();
+
+        Set<String> userNames = new HashSet<>();
+        List<UserAccount> accounts = new ArrayList<>(rows.size());
+        synchronized (store) {
+            for (ImportRow row: rows) {
+                String userName = row.fields.get("userName");
+                if (row.error == null) {
+                    if (!userNames.add(userName)) {
+                        row.error = "Duplicate userName in the import file.";
+                    } else if (store.hasUserName(userName)) {
+                        row.error = "The account already exists.";
+                    }
+                }
+                if (row.error == null) {
+                    accounts.add(row.account);
+                } else {
+                    result.errors.add(new ImportError(row.line, userName, row.error));
+                }
+            }
+            if (!accounts.isEmpty()) {
+                store.addAccounts(accounts);
+            }
+        }
+        result.imported = accounts.size();
+        Collections.sort(result.errors, (a, b) -> Integer.compare(a.line, b.line));
+        return result;
+    }
+
+    private static Map<String, String> toFields(Object o) {
+        if (!(o instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object.");
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (Map.Entry<?, ?> me: ((Map<?, ?>)o).entrySet()) {
+            fields.put(String.valueOf(me.getKey()), me.getValue() == null ? null : String.valueOf(me.getValue()));
+        }
+        return fields;
+    }
+
+    /**
+     * Split a CSV line into values. Surrounding quotes are removed and doubled quotes inside
+     * a quoted value are collapsed.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value.");
+        }
+        values.add(sb.toString());
+        return values;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.trim().isEmpty() ? null : s.trim();
+    }
+
+    /**
+     * Validate a row and build its UserAccount. Called from the fork/join pool.
+     */
+    private void processRow(ImportRow row) {
+        Map<String, String> fields = row.fields;
+        String userName = emptyToNull(fields.get("userName")),
+            password = fields.get("password"),
+            passwordHash = emptyToNull(fields.get("passwordHash")),
+            enabled = emptyToNull(fields.get("enabled"));
+        if (password != null && password.isEmpty()) {
+            password = null;
+        }
+        if (userName == null) {
+            row.error = "No userName was specified.";
+            return;
+        }
+        if ((password == null) == (passwordHash == null)) {
+            row.error = "Exactly one of password or passwordHash must be specified.";
+            return;
+        }
+        if (enabled != null && !enabled.equalsIgnoreCase("true") && !enabled.equalsIgnoreCase("false")) {
+            row.error = "The enabled value must be true or false.";
+            return;
+        }
+        fields.put("userName", userName);
+
+        UserAccount account = new UserAccount();
+        account.userName = userName;
+        account.fullName = emptyToNull(fields.get("fullName"));
+        account.emailAddress = emptyToNull(fields.get("emailAddress"));
+        account.enabled = enabled == null || Boolean.parseBoolean(enabled);
+        if (password != null) {
+            try {
+                ap.setPassword(account, password);
+            } catch (PasswordValidationException pve) {
+                row.error = String.join(" ", pve.getMessages());
+                return;
+            }
+        } else {
+            if (!ARGON2_HASH.matcher(passwordHash).matches()) {
+                row.error = "The passwordHash is not an Argon2 hash.";
+                return;
+            }
+            account.password = passwordHash;
+            account.pwdChangeDate = new Date(System.currentTimeMillis());
+        }
+        row.account = account;
+    }
+}
@@ -0,0 +1,204 @@
+package com.mhsoftware.authdemo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The lookup structures for the accounts held in an AccountStore.
+ *
+ * The primary lookups are by userID and userName. The secondary indexes
+ * are:
+ *
+ * emailAddress - A hash index on the normalized (trimmed, lower case) address.
+ * Email addresses aren't required to be unique, so each key holds a set.
+ *
+ * prefix - A sorted index on the lower cased userName, fullName, and each word
+ * of the fullName. A prefix search is a range scan over the sorted keys.
+ *
+ * UserAccount fields are public and callers mutate the instance returned by
+ * AccountStore.getAccount(), so by the time updateAccount() is called, the
+ * account no longer has the values it was indexed under. To handle that, the
+ * index remembers the keys each account was indexed with, and uses those to
+ * remove the stale entries.
+ *
+ * This class isn't thread safe. AccountStore does the locking.
+ *
+ * @author gsexton
+ */
+class AccountIndex {
+
+    /** The keys an account was last indexed under. */
+    private static class IndexedKeys {
+        final String userName;
+        final String email;
+        final List<String> prefixKeys;
+        final boolean enabled;
+
+        IndexedKeys(String userName, String email, List<String> prefixKeys, boolean enabled) {
+            this.userName = userName;
+            this.email = email;
+            this.prefixKeys = prefixKeys;
+            this.enabled = enabled;
+        }
+    }
+
+    private final Map<Integer, UserAccount> byID = new HashMap<>();
+    private final Map<String, UserAccount> byUserName = new HashMap<>();
+    private final Map<String, Set<UserAccount>> byEmail = new HashMap<>();
+    private final TreeMap<String, Set<UserAccount>> byPrefix = new TreeMap<>();
+    private final Map<Integer, IndexedKeys> indexedKeys = new HashMap<>();
+
+    AccountIndex() {
+    }
+
+    AccountIndex(Collection<UserAccount> accounts) {
+        accounts.forEach(this::add);
+    }
+
+    /**
+     * Normalize an email address for indexing and lookup.
+     *
+     * @return String The normalized value, or null if the address is null or empty.
+     */
+    static String normalizeEmail(String emailAddress) {
+        if (emailAddress == null) {
+            return null;
+        }
+        String s = emailAddress.trim().toLowerCase(Locale.ROOT);
+        return s.isEmpty() ? null : s;
+    }
+
+    private static List<String> getPrefixKeys(UserAccount user) {
+        List<String> keys = new ArrayList<>(4);
+        if (user.userName != null) {
+            keys.add(user.userName.toLowerCase(Locale.ROOT));
+        }
+        if (user.fullName != null) {
+            String fullName = user.fullName.trim().toLowerCase(Locale.ROOT);
+            if (!fullName.isEmpty()) {
+                keys.add(fullName);
+                String[] words = fullName.split("\\s+");
+                if (words.length > 1) {
+                    for (String word: words) {
+                        keys.add(word);
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void addTo(Map<String, Set<UserAccount>> map, String key, UserAccount user) {
+        map.computeIfAbsent(key, k -> new LinkedHashSet<>(2)).add(user);
+    }
+
+    private static void removeFrom(Map<String, Set<UserAccount>> map, String key, UserAccount user) {
+        Set<UserAccount> set = map.get(key);
+        if (set != null) {
+            set.remove(user);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Add an account to the index, replacing any entries for the same userID.
+     */
+    void add(UserAccount user) {
+        remove(user.userID);
+        List<String> prefixKeys = getPrefixKeys(user);
+        String email = normalizeEmail(user.emailAddress);
+
+        byID.put(user.userID, user);
+        if (user.userName != null) {
+            byUserName.put(user.userName, user);
+        }
+        if (email != null) {
+            addTo(byEmail, email, user);
+        }
+        for (String key: prefixKeys) {
+            addTo(byPrefix, key, user);
+        }
+        indexedKeys.put(user.userID, new IndexedKeys(user.userName, email, prefixKeys, user.enabled));
+    }
+
+    /**
+     * Remove all entries for the specified userID.
+     *
+     * @return UserAccount The account that was indexed, or null.
+     */
+    UserAccount remove(int userID) {
+        UserAccount user = byID.remove(userID);
+        IndexedKeys keys = indexedKeys.remove(userID);
+        if (user == null || keys == null) {
+            return user;
+        }
+        if (keys.userName != null && byUserName.get(keys.userName) == user) {
+            byUserName.remove(keys.userName);
+        }
+        if (keys.email != null) {
+            removeFrom(byEmail, keys.email, user);
+        }
+        for (String key: keys.prefixKeys) {
+            removeFrom(byPrefix, key, user);
+        }
+        return user;
+    }
+
+    /**
+     * @return Boolean The enabled value the account had when it was last indexed, 
+     *         or null if the account isn't in the index.
+     */
+    Boolean wasEnabled(int userID) {
+        IndexedKeys keys = indexedKeys.get(userID);
+        return keys == null ? null : Boolean.valueOf(keys.enabled);
+    }
+
+    UserAccount getByID(int userID) {
+        return byID.get(userID);
+    }
+
+    UserAccount getByUserName(String userName) {
+        return byUserName.get(userName);
+    }
+
+    Collection<UserAccount> getByEmail(String emailAddress) {
+        String email = normalizeEmail(emailAddress);
+        Set<UserAccount> set = email == null ? null : byEmail.get(email);
+        return set == null ? Collections.emptyList() : new ArrayList<>(set);
+    }
+
+    /**
+     * Find accounts where the userName, fullName, or a word of the fullName starts
+     * with prefix. The comparison is case insensitive. Results are in key order.
+     *
+     * @param limit The maximum number of accounts to return.
+     */
+    List<UserAccount> findByPrefix(String prefix, int limit) {
+        String p = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        SortedMap<String, Set<UserAccount>> range = p.isEmpty() ? byPrefix : byPrefix.subMap(p, p + Character.MAX_VALUE);
+        Set<UserAccount> result = new LinkedHashSet<>();
+        for (Set<UserAccount> set: range.values()) {
+            for (UserAccount user: set) {
+                if (result.size() >= limit) {
+                    return new ArrayList<>(result);
+                }
+                result.add(user);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    int size() {
+        return byID.size();
+    }
+}
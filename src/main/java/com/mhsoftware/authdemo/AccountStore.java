@@ -1,12 +1,28 @@
 package com.mhsoftware.authdemo;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.yaml.snakeyaml.*;
 import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.reader.UnicodeReader;
 
 
 /**
@@ -17,13 +33,24 @@ import org.yaml.snakeyaml.constructor.Constructor;
  * re-writing the whole file, performance of lookups, etc. I'm aware of 
  * these things, I'm ignoring them purposely. 
  *  
- * In numerous places, I'm iterating over the list for simplicity rather 
- * than using a map to speed up access. I know this is O(N)
- * but time constraints... 
+ * Lookups by userID, userName, emailAddress and name prefix go through an 
+ * AccountIndex that's built when the store is read, and maintained as 
+ * accounts are added, updated, and deleted. 
  *  
  * In a production system, I would use a database of some sort to hold 
  * account information and lookup performance would be more or less constant. 
  *  
+ * getInstance() is the store in account-info.yaml in the current directory, or the 
+ * file named by the system property authdemo.store.file. 
+ * TenantManager creates one store per tenant, each with its own file. 
+ *  
+ * Accounts that haven't been used for a while can be demoted to a cold tier 
+ * (see ColdStore and demoteInactive()), which keeps them in a compact binary 
+ * file instead of memory and the YAML. The lookups and updates find cold 
+ * accounts too, and promote them back to the hot store, so callers don't 
+ * need to know which tier an account is in. findAccountsByPrefix() is the 
+ * exception. It returns cold accounts without promoting them. 
+ *  
  * The structure of the file is: 
  *  
  * nextUserID: int 
@@ -51,10 +78,45 @@ public class AccountStore {
         }
     }
 
+    /**
+     * Receives every change made to the store, in the order they're made. The 
+     * methods are called while the store is locked, so they must be quick and 
+     * must not call back into the store. 
+     */
+    public interface MutationListener {
+        /** An account was added or updated. */
+        void accountPut(UserAccount user, int nextUserID);
+
+        /** An account was deleted. */
+        void accountDeleted(int userID, int nextUserID);
+    }
+
     private static AccountStore instance;
 
     private Store m_store;
 
+    private AccountIndex m_index;
+
+    private File m_storeFile = new File(System.getProperty("authdemo.store.file", STORE_FILE));
+
+    private long m_writeCount;
+
+    private MutationListener m_listener;
+
+    private boolean m_readOnly;
+
+    private boolean m_loadedFromSnapshot;
+
+    private boolean m_loadedWithYaml;
+
+    private int m_maxAccounts;
+
+    private ColdStore m_cold;
+
+    private ScheduledExecutorService m_demoter;
+
+    private static final boolean SNAPSHOTS = Boolean.parseBoolean(System.getProperty("authdemo.store.snapshot", "true"));
+
     static {
         // Initialize the singleton.
         instance = new AccountStore();
@@ -63,76 +125,733 @@ public class AccountStore {
     private AccountStore() {
     }
 
+    /**
+     * Create a store kept in storeFile. Nothing is read until the first access.
+     */
+    public AccountStore(final File storeFile) {
+        m_storeFile = storeFile;
+    }
+
     public static AccountStore getInstance() {
         return instance;
     }
 
-    public UserAccount getAccount(final String userName) {
+    /**
+     * Change the file the store is kept in. The in-memory store is discarded 
+     * and will be read from the new file on the next access. 
+     */
+    public void setStoreFile(final File storeFile) {
+        synchronized (this) {
+            m_storeFile = storeFile;
+            resetStore();
+        }
+    }
+
+    public File getStoreFile() {
+        synchronized (this) {
+            return m_storeFile;
+        }
+    }
+
+    /**
+     * @return long The number of times the store file has been written by this process.
+     */
+    public long getWriteCount() {
+        synchronized (this) {
+            return m_writeCount;
+        }
+    }
+
+    /**
+     * Limit the number of accounts in the store. Adds that would go over the limit 
+     * are rejected. 
+     *  
+     * @param maxAccounts The limit, or 0 for no limit. 
+     */
+    public void setMaxAccounts(final int maxAccounts) {
+        synchronized (this) {
+            m_maxAccounts = maxAccounts;
+        }
+    }
+
+    public int getMaxAccounts() {
+        synchronized (this) {
+            return m_maxAccounts;
+        }
+    }
+
+    private void checkQuota(Store store, int adding) {
+        if (m_maxAccounts > 0 && store.users.size() + getColdCount() + adding > m_maxAccounts) {
+            throw new IllegalStateException("The account store " + m_storeFile + " is limited to " + m_maxAccounts + " accounts!");
+        }
+    }
+
+    /**
+     * Set the listener that receives every change made to the store. Only one 
+     * listener is supported. 
+     */
+    public void setMutationListener(final MutationListener listener) {
+        synchronized (this) {
+            m_listener = listener;
+        }
+    }
+
+    /**
+     * Return a copy of the store. The accounts are copies, so they can be used 
+     * without holding the store lock. 
+     */
+    public Store copyStore() {
         synchronized (this) {
             Store store = readStore();
-            for (UserAccount u: store.users) {
-                if (u.userName.equals(userName)) {
-                    return u;
+            Store copy = new Store();
+            copy.nextUserID = store.nextUserID;
+            copy.users = new ArrayList<>(store.users.size());
+            for (UserAccount user: store.users) {
+                copy.users.add(new UserAccount(user));
+            }
+            // Read from the file, so they're copies already.
+            copy.users.addAll(readCold(ColdStore::readAll, Collections.<UserAccount>emptyList()));
+            return copy;
+        }
+    }
+
+    public UserAccount getAccount(final String userName) {
+        synchronized (this) {
+            readStore();
+            UserAccount user = m_index.getByUserName(userName);
+            if (user == null) {
+                user = readCold(cold -> cold.getByUserName(userName), null);
+                if (user != null) {
+                    promote(user);
+                    serializeStore();
                 }
             }
+            return user;
         }
-        return null;
     }
 
     public UserAccount getAccount(final int userID) {
         synchronized (this) {
-            Store store = readStore();
-            for (UserAccount u: store.users) {
-                if (u.userID == userID) {
-                    return u;
-                }
+            readStore();
+            UserAccount user = m_index.getByID(userID);
+            if (user == null && (user = findHot(userID)) != null) {
+                serializeStore();
             }
+            return user;
+        }
+    }
+
+    /**
+     * Return the accounts with the specified email address. The comparison 
+     * ignores case and leading/trailing whitespace. 
+     */
+    public Collection<UserAccount> getAccountsByEmail(final String emailAddress) {
+        synchronized (this) {
+            readStore();
+            List<UserAccount> cold = readCold(c -> c.getByEmail(emailAddress), Collections.<UserAccount>emptyList());
+            if (cold.isEmpty()) {
+                return m_index.getByEmail(emailAddress);
+            }
+            cold.forEach(this::promote);
+            serializeStore();
+            return m_index.getByEmail(emailAddress);
+        }
+    }
+
+    /**
+     * Return accounts whose userName, fullName, or a word of the fullName 
+     * begins with prefix. This is intended for type-ahead searching. The hot 
+     * accounts come first, then the cold ones. 
+     *  
+     * @param limit The maximum number of accounts to return. 
+     */
+    public List<UserAccount> findAccountsByPrefix(final String prefix, final int limit) {
+        synchronized (this) {
+            readStore();
+            List<UserAccount> result = m_index.findByPrefix(prefix, limit);
+            int remaining = limit - result.size();
+            if (remaining > 0 && getColdCount() > 0) {
+                result = new ArrayList<>(result);
+                result.addAll(readCold(cold -> cold.findByPrefix(prefix, remaining), Collections.<UserAccount>emptyList()));
+            }
+            return result;
         }
-        return null;
     }
 
     public boolean deleteAccount(final int userID) {
         synchronized (this) {
+            checkWritable();
             Store store = readStore();
-            for (int i = 0; i < store.users.size(); i++) {
-                if (store.users.get(i).userID == userID) {
-                    store.users.remove(i);
-                    serializeStore();
-                    return true;
-                }
+            UserAccount user = m_index.getByID(userID);
+            if (user == null) {
+                user = readCold(cold -> cold.getByID(userID), null);
+            }
+            if (user == null) {
+                return false;
             }
+            if (m_cold != null && m_cold.contains(userID)) {
+                // First, so if this fails, the account is still in the hot store.
+                rewriteCold(cold -> cold.userID == userID ? null : cold, Collections.<UserAccount>emptyList());
+            }
+            if (m_index.remove(userID) != null) {
+                store.users.remove(user);
+                serializeStore();
+            }
+            notifyDeleted(user.userID);
+            AuditLog.getInstance().publish(AuditEventType.ACCOUNT_DELETE, user, null);
+            return true;
         }
-        return false;
     }
 
     public void addAccount(UserAccount user) {
         synchronized (this) {
+            checkWritable();
             Store store = readStore();
             if (user.userID == 0) {
+                checkQuota(store, 1);
                 user.userID = store.nextUserID;
                 store.nextUserID = store.nextUserID + 1;
                 store.users.add(user);
+                m_index.add(user);
                 serializeStore();
+                notifyPut(user);
+                AuditLog.getInstance().publish(AuditEventType.ACCOUNT_ADD, user, null);
             } else {
                 updateAccount(user);
             }
         }
     }
 
+    /**
+     * Add a group of new accounts. The userIDs are allocated as one block and 
+     * the store file is written once, rather than once per account. 
+     *  
+     * The accounts must all be new (userID == 0), and their userNames must not 
+     * already exist. If any account fails those checks, none of them are added. 
+     */
+    public void addAccounts(Collection<UserAccount> users) {
+        synchronized (this) {
+            checkWritable();
+            Store store = readStore();
+            checkQuota(store, users.size());
+            Set<String> userNames = new HashSet<>();
+            for (UserAccount user: users) {
+                if (user.userID != 0) {
+                    throw new RuntimeException("The account: " + user.userName + " already has a userID of " + user.userID + "!");
+                }
+                if (hasUserName(user.userName) || !userNames.add(user.userName)) {
+                    throw new RuntimeException("The account: " + user.userName + " already exists!");
+                }
+            }
+            int userID = store.nextUserID;
+            store.nextUserID = store.nextUserID + users.size();
+            for (UserAccount user: users) {
+                user.userID = userID++;
+                store.users.add(user);
+                m_index.add(user);
+            }
+            serializeStore();
+            users.forEach(this::notifyPut);
+            users.forEach(user -> AuditLog.getInstance().publish(AuditEventType.ACCOUNT_ADD, user, null));
+        }
+    }
+
     public void updateAccount(UserAccount user) {
         synchronized (this) {
+            checkWritable();
             Store store = readStore();
-            for (int i = 0; i < store.users.size(); i++) {
-                if (store.users.get(i).userID == user.userID) {
-                    store.users.set(i, user);
-                    serializeStore();
-                    return;
+            UserAccount existing = findHot(user.userID);
+            if (existing == null) {
+                throw new RuntimeException("The specified account: " + user.userID + " was not found in the datastore for update!");
+            }
+            if (existing != user) {
+                store.users.set(store.users.indexOf(existing), user);
+            }
+            reindex(user);
+            serializeStore();
+            notifyPut(user);
+        }
+    }
+
+    /**
+     * @return boolean True if there's a hot or cold account with the userName. Unlike 
+     *         getAccount(), this doesn't promote a cold account. 
+     */
+    boolean hasUserName(String userName) {
+        synchronized (this) {
+            readStore();
+            return m_index.getByUserName(userName) != null || (m_cold != null && m_cold.hasUserName(userName));
+        }
+    }
+
+    /**
+     * Update a group of existing accounts, and write the store file once. If any 
+     * of them isn't in the store, none of them are updated. 
+     */
+    public void updateAccounts(Collection<UserAccount> users) {
+        synchronized (this) {
+            checkWritable();
+            readStore();
+            for (UserAccount user: users) {
+                if (findHot(user.userID) == null) {
+                    throw new RuntimeException("The specified account: " + user.userID + " was not found in the datastore for update!");
+                }
+            }
+            replaceAccounts(users);
+        }
+    }
+
+    /**
+     * Like updateAccounts(), but an account that isn't in the store any more (it was 
+     * deleted after it was read) is left out, rather than keeping the others from 
+     * being updated. 
+     *  
+     * @return List&lt;UserAccount&gt; The accounts that were left out. 
+     */
+    public List<UserAccount> updateExistingAccounts(Collection<UserAccount> users) {
+        synchronized (this) {
+            checkWritable();
+            readStore();
+            List<UserAccount> existing = new ArrayList<>(users.size());
+            List<UserAccount> missing = new ArrayList<>();
+            for (UserAccount user: users) {
+                if (findHot(user.userID) == null) {
+                    missing.add(user);
+                } else {
+                    existing.add(user);
+                }
+            }
+            if (!existing.isEmpty()) {
+                replaceAccounts(existing);
+            }
+            return missing;
+        }
+    }
+
+    /**
+     * Put accounts that are known to be hot in place of the stored ones, and write the 
+     * store file. The caller has to hold the lock. 
+     */
+    private void replaceAccounts(Collection<UserAccount> users) {
+        Store store = readStore();
+        for (UserAccount user: users) {
+            UserAccount existing = m_index.getByID(user.userID);
+            if (existing != user) {
+                store.users.set(store.users.indexOf(existing), user);
+            }
+            reindex(user);
+        }
+        serializeStore();
+        users.forEach(this::notifyPut);
+    }
+
+    /**
+     * Apply update to every account that matches filter, in one pass over the 
+     * store, and write the store file once. 
+     *  
+     * @param dryRun If true, nothing is changed. The matching accounts are only counted. 
+     *  
+     * @return int The number of matching accounts. 
+     */
+    public int bulkUpdate(Predicate<UserAccount> filter, Consumer<UserAccount> update, boolean dryRun) {
+        synchronized (this) {
+            if (!dryRun) {
+                checkWritable();
+            }
+            Store store = readStore();
+            List<UserAccount> updated = new ArrayList<>();
+            for (UserAccount user: store.users) {
+                if (filter.test(user)) {
+                    updated.add(user);
+                    if (!dryRun) {
+                        update.accept(user);
+                        reindex(user);
+                    }
+                }
+            }
+            List<UserAccount> coldUpdated = new ArrayList<>();
+            if (getColdCount() > 0) {
+                if (dryRun) {
+                    readCold(ColdStore::readAll, Collections.<UserAccount>emptyList()).stream().filter(filter).forEach(coldUpdated::add);
+                } else {
+                    // The cold accounts are updated where they are, rather than promoted.
+                    rewriteCold(user -> {
+                        if (filter.test(user)) {
+                            boolean wasEnabled = user.enabled;
+                            update.accept(user);
+                            coldUpdated.add(user);
+                            if (wasEnabled != user.enabled) {
+                                AuditLog.getInstance().publish(user.enabled ? AuditEventType.ACCOUNT_ENABLE : AuditEventType.ACCOUNT_DISABLE, user, null);
+                            }
+                        }
+                        return user;
+                    }, Collections.<UserAccount>emptyList());
+                }
+            }
+            if (!updated.isEmpty() && !dryRun) {
+                serializeStore();
+                updated.forEach(this::notifyPut);
+            }
+            if (!dryRun) {
+                coldUpdated.forEach(this::notifyPut);
+            }
+            return updated.size() + coldUpdated.size();
+        }
+    }
+
+    /**
+     * Delete every account that matches filter, in one pass over the store, and 
+     * write the store file once. 
+     *  
+     * @param dryRun If true, nothing is deleted. The matching accounts are only counted. 
+     *  
+     * @return int The number of matching accounts. 
+     */
+    public int bulkDelete(Predicate<UserAccount> filter, boolean dryRun) {
+        synchronized (this) {
+            if (!dryRun) {
+                checkWritable();
+            }
+            Store store = readStore();
+            List<UserAccount> kept = new ArrayList<>(store.users.size());
+            List<UserAccount> deleted = new ArrayList<>();
+            for (UserAccount user: store.users) {
+                if (filter.test(user)) {
+                    deleted.add(user);
+                } else {
+                    kept.add(user);
+                }
+            }
+            List<UserAccount> coldDeleted = new ArrayList<>();
+            if (dryRun) {
+                readCold(ColdStore::readAll, Collections.<UserAccount>emptyList()).stream().filter(filter).forEach(coldDeleted::add);
+            } else if (m_cold != null && (m_cold.size() > 0 || deleted.stream().anyMatch(user -> m_cold.contains(user.userID)))) {
+                // First, so a promoted account's old cold record is gone before the account leaves the hot store.
+                rewriteCold(user -> {
+                    if (filter.test(user)) {
+                        coldDeleted.add(user);
+                        return null;
+                    }
+                    return user;
+                }, Collections.<UserAccount>emptyList());
+            }
+            if (!deleted.isEmpty() && !dryRun) {
+                store.users = kept;
+                deleted.forEach(user -> m_index.remove(user.userID));
+                serializeStore();
+            }
+            deleted.addAll(coldDeleted);
+            if (!dryRun) {
+                deleted.forEach(user -> notifyDeleted(user.userID));
+                deleted.forEach(user -> AuditLog.getInstance().publish(AuditEventType.ACCOUNT_DELETE, user, null));
+            }
+            return deleted.size();
+        }
+    }
+
+    /**
+     * Replace the whole store, from a backup for example, and write it. The 
+     * listener is told about every account that was deleted and every one 
+     * that's in the new store, so replicas follow along. 
+     */
+    public void restoreStore(Store restored) {
+        synchronized (this) {
+            checkWritable();
+            Store store = readStore();
+            if (restored.users == null) {
+                restored.users = new ArrayList<>();
+            }
+            Set<Integer> kept = new HashSet<>();
+            restored.users.forEach(user -> kept.add(user.userID));
+            List<UserAccount> previous = new ArrayList<>(store.users);
+            previous.addAll(readCold(ColdStore::readAll, Collections.<UserAccount>emptyList()));
+            m_store = restored;
+            m_index = new AccountIndex(restored.users);
+            serializeStore();
+            if (m_cold != null) {
+                // The restored store has all of the accounts, so the cold tier starts over.
+                try {
+                    m_cold.delete();
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Unable to remove the cold accounts for " + m_storeFile + ". " + ioe.getMessage(), ioe);
                 }
             }
-            throw new RuntimeException("The specified account: " + user.userID + " was not found in the datastore for update!");
+            previous.stream().filter(user -> !kept.contains(user.userID)).forEach(user -> notifyDeleted(user.userID));
+            restored.users.forEach(this::notifyPut);
+        }
+    }
+
+    /**
+     * Make this store a read-only replica. The store is emptied, and local changes 
+     * are rejected. The contents come from installReplicaSnapshot() and the 
+     * applyReplicated methods, and are kept in memory only. 
+     */
+    void setReadOnlyReplica() {
+        synchronized (this) {
+            closeCold();
+            m_readOnly = true;
+            Store store = new Store();
+            store.users = new ArrayList<>();
+            installReplicaSnapshot(store);
+        }
+    }
+
+    /** @return boolean True if this store is a read-only replica. */
+    public boolean isReadOnlyReplica() {
+        synchronized (this) {
+            return m_readOnly;
+        }
+    }
+
+    /**
+     * Replace the contents of a replica with a snapshot from the primary.
+     */
+    void installReplicaSnapshot(Store store) {
+        synchronized (this) {
+            m_store = store;
+            m_index = new AccountIndex(store.users);
+        }
+    }
+
+    /**
+     * Apply an add or update received from the primary.
+     */
+    void applyReplicatedPut(UserAccount user, int nextUserID) {
+        synchronized (this) {
+            UserAccount existing = m_index.getByID(user.userID);
+            if (existing == null) {
+                m_store.users.add(user);
+            } else {
+                m_store.users.set(m_store.users.indexOf(existing), user);
+            }
+            m_index.add(user);
+            m_store.nextUserID = nextUserID;
+        }
+    }
+
+    /**
+     * Apply a delete received from the primary.
+     */
+    void applyReplicatedDelete(int userID, int nextUserID) {
+        synchronized (this) {
+            UserAccount existing = m_index.remove(userID);
+            if (existing != null) {
+                m_store.users.remove(existing);
+            }
+            m_store.nextUserID = nextUserID;
         }
     }
 
+    /**
+     * @return int The number of accounts in the hot store. 
+     */
+    public int getHotCount() {
+        synchronized (this) {
+            return readStore().users.size();
+        }
+    }
+
+    /**
+     * @return int The number of accounts in the cold tier. 
+     */
+    public int getColdCount() {
+        synchronized (this) {
+            readStore();
+            return m_cold == null ? 0 : m_cold.size();
+        }
+    }
+
+    /**
+     * @return long When the account was last used: the later of its last sign in and 
+     *         password change, or 0 if it has neither. 
+     */
+    static long lastActive(UserAccount user) {
+        return Math.max(user.lastSignin == null ? 0 : user.lastSignin.getTime(),
+                        user.pwdChangeDate == null ? 0 : user.pwdChangeDate.getTime());
+    }
+
+    /**
+     * Move up to batchSize hot accounts that haven't been used since cutoff to the 
+     * cold tier. The cold file is written first and then the store file, so if 
+     * anything goes wrong in between, the accounts are in both, and the hot copy 
+     * is the one that's used. 
+     *  
+     * Each batch rewrites the cold file, and the store is locked while it does, so 
+     * the batch size trades the number of rewrites against how long other 
+     * operations wait. 
+     *  
+     * @return int The number of accounts moved. 
+     */
+    public int demoteInactive(final Date cutoff, final int batchSize) {
+        synchronized (this) {
+            checkWritable();
+            Store store = readStore();
+            Set<UserAccount> batch = new HashSet<>();
+            for (UserAccount user: store.users) {
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+                if (lastActive(user) < cutoff.getTime()) {
+                    batch.add(user);
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            rewriteCold(Function.<UserAccount>identity(), batch);
+            store.users.removeIf(batch::contains);
+            batch.forEach(user -> m_index.remove(user.userID));
+            serializeStore();
+            return batch.size();
+        }
+    }
+
+    /**
+     * Demote all of the accounts that haven't been used since cutoff, batchSize at a 
+     * time. The store is unlocked between batches. 
+     *  
+     * @return int The number of accounts moved. 
+     */
+    public int demoteAllInactive(final Date cutoff, final int batchSize) {
+        int total = 0;
+        int moved;
+        do {
+            moved = demoteInactive(cutoff, batchSize);
+            total += moved;
+        } while (moved == batchSize);
+        return total;
+    }
+
+    /**
+     * Start a daemon thread that demotes accounts that haven't been used for 
+     * inactiveMillis, every periodMillis. 
+     */
+    public void startDemotion(final long inactiveMillis, final int batchSize, final long periodMillis) {
+        synchronized (this) {
+            if (m_demoter != null) {
+                return;
+            }
+            m_demoter = Executors.newSingleThreadScheduledExecutor(LoginPipeline.namedThreads("authdemo-demoter-"));
+            m_demoter.scheduleWithFixedDelay(() -> {
+                try {
+                    int moved = demoteAllInactive(new Date(System.currentTimeMillis() - inactiveMillis), batchSize);
+                    if (moved > 0) {
+                        System.out.println("Moved " + moved + " inactive accounts to " + ColdStore.coldFile(getStoreFile()) + ".");
+                    }
+                } catch (RuntimeException re) {
+                    System.err.println("Inactive accounts were not demoted. " + re.getMessage());
+                }
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stopDemotion() {
+        synchronized (this) {
+            if (m_demoter != null) {
+                m_demoter.shutdownNow();
+                m_demoter = null;
+            }
+        }
+    }
+
+    /** Something read from the cold tier. */
+    private interface ColdRead<T> {
+        T read(ColdStore cold) throws IOException;
+    }
+
+    /**
+     * @return T What read returns, or none if there aren't any cold accounts. 
+     */
+    private <T> T readCold(ColdRead<T> read, T none) {
+        if (m_cold == null || m_cold.size() == 0) {
+            return none;
+        }
+        try {
+            return read.read(m_cold);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read the cold accounts in " + ColdStore.coldFile(m_storeFile) + ". " + ioe.getMessage(), ioe);
+        }
+    }
+
+    private void rewriteCold(Function<UserAccount, UserAccount> change, Collection<UserAccount> add) {
+        try {
+            m_cold.rewrite(change, add);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write the cold accounts to " + ColdStore.coldFile(m_storeFile) + ". " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Move an account read from the cold tier into the hot store. The caller writes the store file. 
+     */
+    private void promote(UserAccount user) {
+        m_cold.promoted(user.userID);
+        m_store.users.add(user);
+        m_index.add(user);
+    }
+
+    /**
+     * @return UserAccount The hot account with userID, promoting it from the cold tier if 
+     *         that's where it is, or null. 
+     */
+    private UserAccount findHot(int userID) {
+        UserAccount user = m_index.getByID(userID);
+        if (user == null) {
+            user = readCold(cold -> cold.getByID(userID), null);
+            if (user != null) {
+                promote(user);
+            }
+        }
+        return user;
+    }
+
+    private void closeCold() {
+        if (m_cold != null) {
+            try {
+                m_cold.close();
+            } catch (IOException ioe) {
+                System.err.println(ioe);
+            }
+            m_cold = null;
+        }
+    }
+
+    private void checkWritable() {
+        if (m_readOnly) {
+            throw new IllegalStateException("This account store is a read-only replica.");
+        }
+    }
+
+    private void notifyPut(UserAccount user) {
+        if (m_listener != null) {
+            m_listener.accountPut(user, m_store.nextUserID);
+        }
+    }
+
+    private void notifyDeleted(int userID) {
+        if (m_listener != null) {
+            m_listener.accountDeleted(userID, m_store.nextUserID);
+        }
+    }
+
+    /**
+     * Re-index an account that was modified, and audit the change if it was 
+     * enabled or disabled. A lockout was already audited as ACCOUNT_LOCKOUT 
+     * by AuthenticationProvider.postLogin(). 
+     */
+    private void reindex(UserAccount user) {
+        boolean wasEnabled = m_index.wasEnabled(user.userID).booleanValue();
+        m_index.add(user);
+        if (wasEnabled != user.enabled && !(user.lockedOut && !user.enabled)) {
+            AuditLog.getInstance().publish(user.enabled ? AuditEventType.ACCOUNT_ENABLE : AuditEventType.ACCOUNT_DISABLE, user, null);
+        }
+        user.lockedOut = false;
+    }
+
+    /**
+     * @return Collection&lt;UserAccount&gt; All of the accounts. The cold ones are read from 
+     *         the cold file, and aren't promoted. 
+     */
     public Collection<UserAccount> getAccounts() {
         List<UserAccount> lst;
         synchronized (this) {
@@ -140,20 +859,66 @@ public class AccountStore {
             if (store.users == null) {
                 store.users = new ArrayList<>();
             }
-            lst = Collections.unmodifiableList(store.users);
+            List<UserAccount> cold = readCold(ColdStore::readAll, Collections.<UserAccount>emptyList());
+            if (cold.isEmpty()) {
+                lst = Collections.unmodifiableList(store.users);
+            } else {
+                lst = new ArrayList<>(store.users.size() + cold.size());
+                lst.addAll(store.users);
+                lst.addAll(cold);
+                lst = Collections.unmodifiableList(lst);
+            }
         }
         return lst;
     }
 
     public void resetStore() {
         synchronized (this) {
+            if (m_readOnly) {
+                // A replica's contents only exist in memory.
+                return;
+            }
             m_store = null;
+            m_index = null;
+            closeCold();
         }
     }
 
     /**
-     * This method reads the contents of the account-info.yaml file into a store 
-     * object.
+     * @return boolean True if the accounts are in memory. 
+     */
+    public boolean isLoaded() {
+        synchronized (this) {
+            return m_store != null;
+        }
+    }
+
+    /**
+     * @return boolean True if the store in memory was read from the snapshot rather than the YAML. 
+     */
+    public boolean wasLoadedFromSnapshot() {
+        synchronized (this) {
+            return m_loadedFromSnapshot;
+        }
+    }
+
+    /**
+     * @return boolean True if the store in memory was read with yaml.load(), because 
+     *         StreamingStoreLoader couldn't read the file. 
+     */
+    public boolean wasLoadedWithYaml() {
+        synchronized (this) {
+            return m_loadedWithYaml;
+        }
+    }
+
+    /**
+     * This method reads the contents of the store file (account-info.yaml) into a store 
+     * object. 
+     *  
+     * If there's an up to date StoreSnapshot of the file, that's read instead, which is 
+     * much quicker. Otherwise, after the YAML is read, a snapshot is written for next time. 
+     * Setting the system property authdemo.store.snapshot=false turns snapshots off. 
      * 
      * @return Store 
      */
@@ -163,39 +928,101 @@ public class AccountStore {
                 return this.m_store;
             }
 
-            File f = new File(STORE_FILE);
+            File f = m_storeFile;
 
-            if (f.exists()) {
-                Constructor constructor = new Constructor(Store.class);
-                TypeDescription customTypeDescription = new TypeDescription(Store.class);
-                customTypeDescription.addPropertyParameters("users", UserAccount.class);
-                constructor.addTypeDescription(customTypeDescription);
-                Yaml yaml = new Yaml(constructor);
-                try (InputStream  is = new FileInputStream(f)) {
-                    m_store = yaml.load(is);
+            m_loadedFromSnapshot = false;
+            m_loadedWithYaml = false;
+            if (f.exists() && SNAPSHOTS && (m_store = StoreSnapshot.read(f)) != null) {
+                m_loadedFromSnapshot = true;
+            } else if (f.exists()) {
+                try (Reader reader = new UnicodeReader(new FileInputStream(f))) {
+                    m_store = new StreamingStoreLoader(ForkJoinPool.commonPool()).load(reader);
+                } catch (StreamingStoreLoader.UnsupportedStructureException use) {
+                    // Not something the streaming loader understands. Let SnakeYAML have a go at it.
+                    m_store = loadStoreObject(f);
+                    m_loadedWithYaml = true;
                 } catch (IOException ioe) {
                     System.out.println(ioe.toString());
                 }
+                if (m_store != null && SNAPSHOTS) {
+                    try {
+                        StoreSnapshot.write(f, m_store, StoreSnapshot.checksum(f));
+                    } catch (IOException ioe) {
+                        System.err.println(ioe);
+                    }
+                }
             } else {
                 m_store = new Store();
                 m_store.users = new ArrayList<>();
             }
+            if (m_store.users == null) {
+                m_store.users = new ArrayList<>();
+            }
+            m_index = new AccountIndex(m_store.users);
+            if (!m_readOnly) {
+                try {
+                    m_cold = ColdStore.open(f, userID -> m_index.getByID(userID) != null);
+                } catch (IOException ioe) {
+                    // Going on without them would let their userNames be reused.
+                    m_store = null;
+                    m_index = null;
+                    throw new RuntimeException("Unable to read the cold accounts for " + f + ". " + ioe.getMessage(), ioe);
+                }
+            }
             return m_store;
         }
     }
 
     /**
-     * This method serializes the store object to the yaml file.
+     * Read the store file with yaml.load(). This builds the whole node tree in memory, 
+     * so it's only used when StreamingStoreLoader can't handle the file. 
+     */
+    private Store loadStoreObject(File f) {
+        Constructor constructor = new Constructor(Store.class);
+        TypeDescription customTypeDescription = new TypeDescription(Store.class);
+        customTypeDescription.addPropertyParameters("users", UserAccount.class);
+        constructor.addTypeDescription(customTypeDescription);
+        Yaml yaml = new Yaml(constructor);
+        try (InputStream  is = new FileInputStream(f)) {
+            return yaml.load(is);
+        } catch (IOException ioe) {
+            System.out.println(ioe.toString());
+        }
+        return null;
+    }
+
+    /**
+     * This method serializes the store object to the yaml file. 
+     *  
+     * The store is written to a temporary file which is then renamed over the 
+     * store file, so a reader never sees a partially written store. 
      * 
      * @author gsexton (12/14/21)
      */
     private void serializeStore() {
         synchronized (this) {
             Yaml yaml = new Yaml();
-            try (OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(STORE_FILE))) {
+            File tmp = new File(m_storeFile.getPath() + ".tmp");
+            CRC32 crc = new CRC32();
+            try (OutputStreamWriter osw = new OutputStreamWriter(new CheckedOutputStream(new FileOutputStream(tmp), crc))) {
                 yaml.dump(readStore(), osw);
             } catch (IOException ioe) {
                 System.err.println(ioe);
+                return;
+            }
+            try {
+                try {
+                    Files.move(tmp.toPath(), m_storeFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException amnse) {
+                    Files.move(tmp.toPath(), m_storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                m_writeCount++;
+            } catch (IOException ioe) {
+                System.err.println(ioe);
+                return;
+            }
+            if (SNAPSHOTS) {
+                StoreSnapshot.write(m_storeFile, m_store, crc.getValue());
             }
         }
     }
@@ -1,8 +1,17 @@
 package com.mhsoftware.authdemo;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -56,21 +65,84 @@ public class App {
                            "\t--disable --userName=userName\n" +
                            "\t--delete --userName=userName\n" +
                            "\t--query --userName=userName\n" +
-                           "\t--listAccounts\n\n"
+                           "\t--query --emailAddress=someone@domain.com\n" +
+                           "\t--search --prefix=text [--limit=20]\n" +
+                           "\t--listAccounts\n" +
+                           "\t--import --file=accounts.csv|accounts.jsonl\n" +
+                           "\t--bulk --action=enable|disable|delete|resetBadLogins [--dryRun] criteria...\n" +
+                           "\t       where criteria are one or more of: --inactiveDays=N --userNamePrefix=text\n" +
+                           "\t       --emailDomain=domain.com --enabled=true|false --minBadLoginCount=N --all\n" +
+                           "\t--backup --file=backup.gz\n" +
+                           "\t--verifyBackup --file=backup.gz\n" +
+                           "\t--restore --file=backup.gz\n" +
+                           "\t--demote [--inactiveDays=" + DEFAULT_INACTIVE_DAYS + "] [--batchSize=" + DEFAULT_DEMOTION_BATCH + "]\n" +
+                           "\t--tiers\n" +
+                           "\t--loadTest [--accounts=1000] [--threads=4] [--operations=10000] [--seed=42]\n" +
+                           "\t           [--mix=good:70,bad:20,change:5,admin:5] [--storeFile=" + LoadGenerator.LOAD_STORE_FILE + "]\n" +
+                           "\t           (the mix can also have lookup:N, for read-only lookups)\n" +
+                           "\t--hashBenchmark [--checks=2000] [--threads=1] [--memory=" + Argon2.DEFAULT_MEMORY + "] [--iterations="
+                           + Argon2.DEFAULT_ITERATIONS + "] [--parallelism=" + Argon2.DEFAULT_PARALLELISM + "]\n" +
+                           "\t--loginBenchmark [--accounts=1000] [--logins=5000] [--threads=4] [--concurrency=1000]\n" +
+                           "\t                 [--storeFile=" + LoadGenerator.LOAD_STORE_FILE + "]\n" +
+                           "\t--primary [--port=" + ReplicationServer.DEFAULT_PORT + "] [--statusInterval=seconds]\n" +
+                           "\t--replica [--primary=localhost:" + ReplicationServer.DEFAULT_PORT + "] [--statusInterval=seconds]\n" +
+                           "\t--status\n" +
+                           "\t--cdsTraining [--dir=cds-training]\n" +
+                           "\t--policy\n" +
+                           "\t--tenants\n\n" +
+                           "The account commands (--add through --tiers) also take --tenant=name, which uses that tenant's\n" +
+                           "store in " + TenantManager.TENANT_DIR + "/name (or -Dauthdemo.tenant.dir) and its password policy.\n\n" +
+                           "--primary and --replica keep running, and read further commands (one per line, in the\n" +
+                           "same form as above) from standard input. A replica only accepts read-only commands.\n\n" +
+                           "Password policies are read from " + PolicyFileWatcher.POLICY_FILE + " if it exists (or the file named by\n" +
+                           "-Dauthdemo.policy.file), and --primary and --replica reload it whenever it changes.\n\n" +
+                           "With -Dauthdemo.tier.inactiveDays=N, --primary moves accounts that haven't been used for N days\n" +
+                           "to the cold tier every hour (-Dauthdemo.tier.periodMinutes), as --demote does.\n\n"
                           );
     }
 
+    private static TenantManager tenantManager;
+
+    /**
+     * @return TenantManager The tenants, which are opened the first time --tenant is used.
+     */
+    private static synchronized TenantManager getTenantManager() {
+        if (tenantManager == null) {
+            tenantManager = new TenantManager();
+        }
+        return tenantManager;
+    }
+
+    /**
+     * @return AccountStore The store of the tenant named by --tenant, or the store in the 
+     *         current directory if there's no --tenant. 
+     */
+    private static AccountStore getStore(Map<String, String> commandOptions) {
+        String tenant = commandOptions.get("tenant");
+        return tenant == null ? AccountStore.getInstance() : getTenantManager().getStore(tenant);
+    }
+
+    private static AuthenticationProvider getAuthenticationProvider(Map<String, String> commandOptions) {
+        String tenant = commandOptions.get("tenant");
+        return tenant == null ? authenticationProvider : getTenantManager().getTenant(tenant).authenticationProvider;
+    }
+
+    private static void printTenants() {
+        TenantManager tenants = getTenantManager();
+        List<String> names = tenants.getTenantNames();
+        System.out.println(names.size() + " tenants in " + tenants.getDirectory() + ": " + String.join(", ", names));
+        tenants.getStatus().forEach(status -> System.out.println("\t" + status));
+    }
+
     private static UserAccount getUserAccount(Map<String, String> commandOptions) {
         if (!commandOptions.containsKey("userName")) {
-            System.out.println("A required userName was not specified. Aborting....");
-            usage();
-            System.exit(1);
+            throw new IllegalArgumentException("A required userName was not specified.");
         }
-        return AccountStore.getInstance().getAccount(commandOptions.get("userName"));
+        return getStore(commandOptions).getAccount(commandOptions.get("userName"));
     }
 
-    private static void listAccounts() {
-        Collection<UserAccount> accounts = AccountStore.getInstance().getAccounts();
+    private static void listAccounts(Map<String, String> commandOptions) {
+        Collection<UserAccount> accounts = getStore(commandOptions).getAccounts();
         if (accounts.size() == 0) {
             System.out.println("No accounts found.");
         } else {
@@ -85,7 +157,7 @@ public class App {
             System.out.println("The specified account was not found.");
             return;
         }
-        if (AccountStore.getInstance().deleteAccount(account.userID)) {
+        if (getStore(commandOptions).deleteAccount(account.userID)) {
             System.out.println("The account was deleted.");
         } else {
             System.out.println("The account was not deleted!");
@@ -99,15 +171,40 @@ public class App {
             return;
         }
         account.enabled = enabled;
-        AccountStore.getInstance().updateAccount(account);
+        getStore(commandOptions).updateAccount(account);
         System.out.println("Account Updated. New Value: " + account);
     }
 
     public static void query(Map<String, String>commandOptions){
+        if (!commandOptions.containsKey("userName") && commandOptions.containsKey("emailAddress")) {
+            Collection<UserAccount> accounts = getStore(commandOptions).getAccountsByEmail(commandOptions.get("emailAddress"));
+            if (accounts.isEmpty()) {
+                System.out.println("Query Result: null");
+            } else {
+                accounts.forEach(account -> System.out.println("Query Result: " + account));
+            }
+            return;
+        }
         UserAccount account = getUserAccount(commandOptions);
         System.out.println("Query Result: " + account);
     }
 
+    public static void search(Map<String, String> commandOptions){
+        String prefix = commandOptions.get("prefix");
+        if (prefix == null) {
+            System.out.println("You must specify a prefix for a search operation.\n");
+            usage();
+            return;
+        }
+        int limit = Integer.parseInt(commandOptions.getOrDefault("limit", "20"));
+        List<UserAccount> accounts = getStore(commandOptions).findAccountsByPrefix(prefix, limit);
+        if (accounts.isEmpty()) {
+            System.out.println("No accounts found.");
+        } else {
+            accounts.forEach(account -> System.out.println(account));
+        }
+    }
+
     public static void login(Map<String, String> commandOptions){
         String userName = commandOptions.getOrDefault("userName", null),
             password = commandOptions.getOrDefault("password", null);
@@ -116,19 +213,42 @@ public class App {
             usage();
             return;
         }
-        UserAccount account = getUserAccount(commandOptions);
+        if (login(getStore(commandOptions), getAuthenticationProvider(commandOptions), userName, password)) {
+            System.out.println("Login was successful.");
+        }
+    }
+
+    /**
+     * Log in to store, and save the account's sign in or bad login. 
+     *  
+     * A read-only replica can check the password, but it can't save anything, and 
+     * its accounts have to stay the same as the primary's. So on a replica, the 
+     * login is done on a copy of the account, and the copy is thrown away. That 
+     * also means a replica never locks an account out. 
+     *  
+     * @return boolean True if the login succeeded. 
+     */
+    public static boolean login(AccountStore store, AuthenticationProvider ap, String userName, String password) {
+        UserAccount account = store.getAccount(userName);
         if (account == null) {
             System.out.println("The specified account credentials are invalid.");
-            return;
+            return false;
         }
-        AuthenticationProvider ap = new AuthenticationProviderImpl(PasswordPolicyValidator.getDefaultPolicyValidator());
+        boolean replica = store.isReadOnlyReplica();
+        if (replica) {
+            account = new UserAccount(account);
+        }
+        boolean verified;
         try {
-            ap.verifyPassword(account, password);
-            System.out.println("Login was successful.");
+            verified = ap.verifyPassword(account, password);
         } catch (AuthenticationException ae) {
             System.err.println(ae);
+            verified = false;
+        }
+        if (!replica) {
+            store.updateAccount(account);
         }
-        AccountStore.getInstance().updateAccount(account);
+        return verified;
     }
 
     public static void addAccount(Map<String, String> fields){
@@ -150,6 +270,7 @@ public class App {
                 break;
             case "fullName":
                 account.fullName = field.getValue();
+                break;
             case "emailAddress":
                 account.emailAddress = field.getValue();
                 break;
@@ -163,20 +284,137 @@ public class App {
             System.out.println("No password specified. Aborting.\n");
             return;
         }
-        PasswordPolicyValidator policyValidator = PasswordPolicyValidator.getDefaultPolicyValidator();
-        System.out.println("Plicy Valudator=" + policyValidator);
+        System.out.println("Plicy Valudator=" + getAuthenticationProvider(fields).getPasswordPolicyValidator());
         try {
-            AuthenticationProvider ap = new AuthenticationProviderImpl(policyValidator);
-            ap.changePassword(account, password);
+            getAuthenticationProvider(fields).changePassword(account, password);
             System.out.println("Account Password Set: " + account);
         } catch (PasswordValidationException pve) {
             System.out.println(pve);
             return;
         }
-        AccountStore.getInstance().addAccount(account);
+        getStore(fields).addAccount(account);
         System.out.println("Account = " + account);
     }
 
+    public static void importAccounts(Map<String, String> commandOptions){
+        String fileName = commandOptions.get("file");
+        if (fileName == null) {
+            System.out.println("You must specify a file for an import operation.\n");
+            usage();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        AccountImporter importer = new AccountImporter(getStore(commandOptions),
+                                                       getAuthenticationProvider(commandOptions).getPasswordPolicyValidator(),
+                                                       ForkJoinPool.commonPool());
+        AccountImporter.ImportResult result;
+        try {
+            result = importer.importFile(new File(fileName));
+        } catch (IOException ioe) {
+            System.out.println(ioe);
+            return;
+        }
+        result.errors.forEach(error -> System.out.println(error));
+        System.out.println("Rows read: " + result.rowsRead + " Imported: " + result.imported + " Errors: " + result.errors.size()
+                           + " Elapsed: " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public static void bulkOperation(Map<String, String> commandOptions){
+        AccountFilter filter;
+        try {
+            filter = AccountFilter.fromOptions(commandOptions, "action", "dryRun", "tenant");
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+        }
+        boolean dryRun = commandOptions.containsKey("dryRun");
+        String action = commandOptions.getOrDefault("action", "none");
+        AccountStore store = getStore(commandOptions);
+        int count;
+        switch (action) {
+        case "enable":
+            count = store.bulkUpdate(filter, account -> account.enabled = true, dryRun);
+            break;
+        case "disable":
+            count = store.bulkUpdate(filter, account -> account.enabled = false, dryRun);
+            break;
+        case "resetBadLogins":
+            count = store.bulkUpdate(filter, account -> {
+                account.badLoginCount = 0;
+                account.lastBadSignin = null;
+            }, dryRun);
+            break;
+        case "delete":
+            count = store.bulkDelete(filter, dryRun);
+            break;
+        default:
+            System.out.println("Unknown bulk action: " + action);
+            usage();
+            return;
+        }
+        System.out.println((dryRun ? "Dry run. Would " : "Performed ") + action + " on " + count + " accounts where " + filter + ".");
+    }
+
+    private static File getBackupFile(Map<String, String> commandOptions) {
+        String fileName = commandOptions.get("file");
+        if (fileName == null) {
+            throw new IllegalArgumentException("A required backup file was not specified.");
+        }
+        return new File(fileName);
+    }
+
+    /**
+     * Back up the store while it's in use. See StoreBackup. 
+     */
+    public static void backup(Map<String, String> commandOptions) throws IOException {
+        System.out.println("Backed up " + StoreBackup.backup(getStore(commandOptions), getBackupFile(commandOptions)));
+    }
+
+    public static void verifyBackup(Map<String, String> commandOptions) {
+        try {
+            System.out.println("The backup is good. " + StoreBackup.verify(getBackupFile(commandOptions)));
+        } catch (IOException ioe) {
+            System.out.println("The backup is not usable. " + ioe.getMessage());
+        }
+    }
+
+    public static void restore(Map<String, String> commandOptions) {
+        try {
+            System.out.println("Restored " + StoreBackup.restore(getStore(commandOptions), getBackupFile(commandOptions)));
+        } catch (IOException ioe) {
+            System.out.println("The store was not restored. " + ioe.getMessage());
+        }
+    }
+
+    public static final int DEFAULT_INACTIVE_DAYS = 180;
+
+    public static final int DEFAULT_DEMOTION_BATCH = 1000;
+
+    /**
+     * Move the accounts that haven't been used for a while to the cold tier. 
+     */
+    public static void demote(Map<String, String> commandOptions) {
+        int inactiveDays = Integer.parseInt(commandOptions.getOrDefault("inactiveDays", String.valueOf(DEFAULT_INACTIVE_DAYS)));
+        int batchSize = Integer.parseInt(commandOptions.getOrDefault("batchSize", String.valueOf(DEFAULT_DEMOTION_BATCH)));
+        if (inactiveDays < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("inactiveDays can't be negative, and batchSize has to be positive.");
+        }
+        AccountStore store = getStore(commandOptions);
+        long start = System.currentTimeMillis();
+        int moved = store.demoteAllInactive(new Date(start - TimeUnit.DAYS.toMillis(inactiveDays)), batchSize);
+        System.out.println("Moved " + moved + " accounts that haven't been used for " + inactiveDays + " days to the cold tier in "
+                           + (System.currentTimeMillis() - start) + " ms.");
+        printTiers(commandOptions);
+    }
+
+    public static void printTiers(Map<String, String> commandOptions) {
+        AccountStore store = getStore(commandOptions);
+        File storeFile = store.getStoreFile();
+        File coldFile = ColdStore.coldFile(storeFile);
+        System.out.println("Hot accounts: " + store.getHotCount() + " in " + storeFile + " (" + storeFile.length() + " bytes). Cold accounts: "
+                           + store.getColdCount() + " in " + coldFile + " (" + coldFile.length() + " bytes).");
+    }
+
     public static void changePassword(Map<String, String> commandOptions){
         UserAccount account = getUserAccount(commandOptions);
         if (account == null) {
@@ -188,64 +426,283 @@ public class App {
             System.out.println("No password specified for change. Aborting!");
             return;
         }
-        PasswordPolicyValidator policyValidator = PasswordPolicyValidator.getDefaultPolicyValidator();
         try {
-            AuthenticationProvider ap = new AuthenticationProviderImpl(policyValidator);
-            ap.changePassword(account, password);
+            getAuthenticationProvider(commandOptions).changePassword(account, password);
             System.out.println("The password was changed successfully.");
         } catch (PasswordValidationException pve) {
             System.out.println(pve);
             return;
         }
-        AccountStore.getInstance().updateAccount(account);
+        getStore(commandOptions).updateAccount(account);
     }
 
 
-    public static void main( String[] args ){
-        /*
-            Create a really simple password policy for validation.
-        */
-        Map<String, Object> passwordPolicy = new HashMap<>();
-        passwordPolicy.put("minLength", Integer.valueOf(8));
-        PasswordPolicyValidator.setDefaultPolicy(passwordPolicy);
+    public static void printPolicies() {
+        System.out.println("Password policy version " + PasswordPolicyValidator.getVersion()
+                           + (policyWatcher.getLastLoaded() == 0 ? "" : ", loaded from " + policyWatcher.getFile()) + ":");
+        PasswordPolicyValidator.getInstances().values().forEach(validator -> System.out.println("\t" + validator));
+    }
 
-        /*
-            Parse the arguments
-        */
+    /**
+     * The one provider used for every operation. It looks up the current default 
+     * policy each time, so a reloaded policy file takes effect right away. 
+     */
+    private static AuthenticationProvider authenticationProvider;
+
+    private static PolicyFileWatcher policyWatcher;
+
+    /**
+     * Load the password policies from the policy file if there is one, or use a 
+     * really simple built-in policy. 
+     */
+    private static void loadPolicies() throws IOException {
+        policyWatcher = new PolicyFileWatcher(new File(System.getProperty("authdemo.policy.file", PolicyFileWatcher.POLICY_FILE)));
+        if (policyWatcher.getFile().exists()) {
+            policyWatcher.load();
+        } else {
+            Map<String, Object> passwordPolicy = new HashMap<>();
+            passwordPolicy.put("minLength", Integer.valueOf(8));
+            PasswordPolicyValidator.setDefaultPolicy(passwordPolicy);
+        }
+        authenticationProvider = new AuthenticationProviderImpl(PasswordPolicyValidator.getDefaultPolicyValidator());
+    }
+
+    /**
+     * Run the common commands against a scratch store in dir, so that a JVM started with 
+     * -XX:ArchiveClassesAtExit writes a class data sharing archive with the classes they 
+     * need. The build runs this to make target/authdemo.jsa. The store is read both from 
+     * the YAML and from its snapshot. 
+     */
+    public static void cdsTraining(Map<String, String> commandOptions) {
+        File dir = new File(commandOptions.getOrDefault("dir", "cds-training"));
+        File storeFile = new File(dir, AccountStore.STORE_FILE);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create " + dir + ".");
+        }
+        storeFile.delete();
+        StoreSnapshot.snapshotFile(storeFile).delete();
+        AccountStore store = AccountStore.getInstance();
+        store.setStoreFile(storeFile);
+
+        Map<String, String> options = new HashMap<>();
+        options.put("userName", "cds-training");
+        options.put("password", "TrainingPassword");
+        options.put("emailAddress", "cds-training@example.com");
+        addAccount(options);
+        login(options);
+        options.put("password", "WrongPassword");
+        login(options);
+        StoreSnapshot.snapshotFile(storeFile).delete();
+        store.resetStore();
+        query(options);
+        store.resetStore();
+        query(options);
+        options.remove("userName");
+        query(options);
+        search(Collections.singletonMap("prefix", "cds"));
+    }
+
+    private static ReplicationServer replicationServer;
+
+    private static ReplicationClient replicationClient;
+
+    private static void printStatus() {
+        if (replicationServer != null) {
+            List<String> replicas = replicationServer.getReplicaStatus();
+            System.out.println("Primary on port " + replicationServer.getPort() + " at offset " + replicationServer.getNextOffset()
+                               + " with " + replicas.size() + " replicas.");
+            replicas.forEach(replica -> System.out.println("\t" + replica));
+        } else if (replicationClient != null) {
+            System.out.println("Replica " + replicationClient.getStatus());
+        } else {
+            System.out.println("Replication is not running.");
+        }
+    }
+
+    /**
+     * Start a daemon thread that prints the replication status every interval seconds.
+     */
+    private static void startStatusReporter(Map<String, String> commandOptions) {
+        int interval = Integer.parseInt(commandOptions.getOrDefault("statusInterval", "0"));
+        if (interval <= 0) {
+            return;
+        }
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(interval * 1000L);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                printStatus();
+            }
+        }, "authdemo-status");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private static void startPrimary(Map<String, String> commandOptions) throws IOException {
+        int port = Integer.parseInt(commandOptions.getOrDefault("port", String.valueOf(ReplicationServer.DEFAULT_PORT)));
+        replicationServer = new ReplicationServer(AccountStore.getInstance(), port);
+        replicationServer.start();
+        int inactiveDays = Integer.getInteger("authdemo.tier.inactiveDays", 0);
+        if (inactiveDays > 0) {
+            AccountStore.getInstance().startDemotion(TimeUnit.DAYS.toMillis(inactiveDays), DEFAULT_DEMOTION_BATCH,
+                                                     TimeUnit.MINUTES.toMillis(Integer.getInteger("authdemo.tier.periodMinutes", 60)));
+        }
+        System.out.println("Replication primary listening on port " + replicationServer.getPort() + ".");
+        startStatusReporter(commandOptions);
+        readCommands();
+    }
+
+    private static void startReplica(Map<String, String> commandOptions) {
+        String[] primary = commandOptions.getOrDefault("primary", "localhost:" + ReplicationServer.DEFAULT_PORT).split(":");
+        replicationClient = new ReplicationClient(AccountStore.getInstance(), primary[0],
+                                                  primary.length > 1 ? Integer.parseInt(primary[1]) : ReplicationServer.DEFAULT_PORT);
+        replicationClient.start();
+        System.out.println("Replicating from " + primary[0] + ".");
+        startStatusReporter(commandOptions);
+        readCommands();
+    }
+
+    /**
+     * Read commands from standard input and execute them, until end of file. The 
+     * values can't contain spaces. 
+     */
+    private static void readCommands() {
+        try {
+            policyWatcher.start();
+        } catch (IOException ioe) {
+            System.err.println("The password policy file will not be reloaded. " + ioe);
+        }
+        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        try {
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (!execute(line.split("\\s+"))) {
+                        System.out.println("Unknown command: " + line);
+                    }
+                } catch (Exception e) {
+                    System.out.println(e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+            }
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+        }
+    }
+
+    /**
+     * Execute one command. 
+     *  
+     * @return boolean False if the operation isn't known. 
+     */
+    private static boolean execute(String[] args) throws Exception {
         String operation = args.length == 0 ? "--none" : args[0];
         Map<String, String> commandOptions = parseArguments(args);
-        /*
-            Execute the operation
-        */
         switch (operation) {
         case "--add":
             addAccount(commandOptions);
             break;
+        case "--backup":
+            backup(commandOptions);
+            break;
+        case "--bulk":
+            bulkOperation(commandOptions);
+            break;
+        case "--cdsTraining":
+            cdsTraining(commandOptions);
+            break;
         case "--changePassword":
             changePassword(commandOptions);
             break;
         case "--delete":
             deleteAccount(commandOptions);
             break;
+        case "--demote":
+            demote(commandOptions);
+            break;
         case "--disable":
             setEnabled(commandOptions, false);
             break;
         case "--enable":
             setEnabled(commandOptions, true);
             break;
+        case "--hashBenchmark":
+            new HashBenchmark(commandOptions).run();
+            break;
+        case "--import":
+            importAccounts(commandOptions);
+            break;
         case "--listAccounts":
-            listAccounts();
+            listAccounts(commandOptions);
+            break;
+        case "--loadTest":
+            new LoadGenerator(commandOptions).run();
+            break;
+        case "--loginBenchmark":
+            new LoginBenchmark(commandOptions).run();
             break;
         case "--login":
             login(commandOptions);
             break;
+        case "--policy":
+            printPolicies();
+            break;
+        case "--primary":
+            startPrimary(commandOptions);
+            break;
         case "--query":
             query(commandOptions);
             break;
+        case "--replica":
+            startReplica(commandOptions);
+            break;
+        case "--restore":
+            restore(commandOptions);
+            break;
+        case "--search":
+            search(commandOptions);
+            break;
+        case "--status":
+            printStatus();
+            break;
+        case "--verifyBackup":
+            verifyBackup(commandOptions);
+            break;
+        case "--tenants":
+            printTenants();
+            break;
+        case "--tiers":
+            printTiers(commandOptions);
+            break;
         default:
+            return false;
+        }
+        return true;
+    }
+
+    public static void main( String[] args ){
+        /*
+            Set up the password policies, and execute the operation
+        */
+        try {
+            loadPolicies();
+            if (!execute(args)) {
+                usage();
+                System.exit(2);
+            }
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage() + " Aborting....");
             usage();
-            System.exit(2);
-            break;
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println(e);
+            System.exit(1);
         }
     }
 }
@@ -0,0 +1,605 @@
+package com.mhsoftware.authdemo;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * An Argon2id (RFC 9106, version 0x13) implementation that doesn't allocate
+ * its working memory on every call.
+ *
+ * Password4J allocates the whole memory matrix, plus a BLAKE2b instance and
+ * assorted buffers, for each hash and each check. All of it is garbage as soon
+ * as the call returns. Here, all of the working state lives in a Workspace.
+ * Workspaces are kept in a small bounded pool and reused, so after warm up a
+ * verify() allocates nothing. hash() only allocates the encoded String it
+ * returns.
+ *
+ * The encoded form is the same PHC string Password4J produces
+ * ($argon2id$v=19$m=...,t=...,p=...$salt$hash), and the defaults are the
+ * Password4J defaults, so hashes from either one can be checked by the other.
+ * Password4J turns salts into a String and back before hashing with them, so
+ * bytes that aren't valid UTF-8 become replacement characters. Its own random
+ * salts go through that before they're encoded, so verify() can use the bytes
+ * in the encoded string as is. For Password4J to check our hashes though, the
+ * salt has to survive the round trip, so the random salts here are 7-bit
+ * ASCII bytes. There are 20 of them to make up for the lost bit.
+ *
+ * On JDK 17 and later, the compression function can use the Vector API.
+ * See Argon2Compression.
+ *
+ * Lanes are computed one after another on the calling thread rather than on
+ * a thread per lane. Logins already run in parallel, so there's nothing to
+ * gain by having each one use more threads.
+ *
+ * The pool size and the largest working memory that's pooled can be set with
+ * the system properties authdemo.argon2.poolSize and
+ * authdemo.argon2.maxPooledMemory (in KiB).
+ *
+ * verify() takes its parameters from the stored hash, which can come from an
+ * import or a hand edited store file. A hash with a huge memory cost or
+ * parallelism would have it allocate up to 16 GB, and a huge iteration count
+ * would tie up a login thread for hours. Hashes whose working memory (at
+ * least 8 blocks per lane, whatever m= says) is more than
+ * authdemo.argon2.maxMemory (in KiB, 1 GiB by default), or whose t= or p= is
+ * more than authdemo.argon2.maxIterations (256) or
+ * authdemo.argon2.maxParallelism (64), are rejected before anything is
+ * allocated.
+ *
+ * @author gsexton
+ */
+public final class Argon2 {
+
+    /** The Password4J defaults. Memory is in KiB. */
+    public static final int DEFAULT_MEMORY = 12;
+    public static final int DEFAULT_ITERATIONS = 20;
+    public static final int DEFAULT_PARALLELISM = 2;
+    public static final int DEFAULT_HASH_LENGTH = 32;
+    public static final int DEFAULT_SALT_LENGTH = 20;
+
+    private static final String PREFIX = "$argon2id$v=19$";
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;
+    private static final int SYNC_POINTS = 4;
+    static final int BLOCK_LONGS = 128;
+    static final int BLOCK_BYTES = 1024;
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_LONGS;
+
+    private static final int POOL_SIZE = Integer.getInteger("authdemo.argon2.poolSize", Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_POOLED_MEMORY = Integer.getInteger("authdemo.argon2.maxPooledMemory", 64 * 1024);
+    private static final int MAX_MEMORY = Integer.getInteger("authdemo.argon2.maxMemory", 1024 * 1024);
+    private static final int MAX_ITERATIONS = Integer.getInteger("authdemo.argon2.maxIterations", 256);
+    private static final int MAX_PARALLELISM = Integer.getInteger("authdemo.argon2.maxParallelism", 64);
+
+    private static final Workspace[] pool = new Workspace[POOL_SIZE];
+    private static int poolCount;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static volatile Argon2Compression compression = Argon2Compression.select();
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Everything one computation needs. The byte arrays grow as needed and
+     * are kept.
+     */
+    static final class Workspace {
+        long[] memory = new long[0];
+        final long[] r = new long[BLOCK_LONGS];
+        final long[] z = new long[BLOCK_LONGS];
+        final long[] address = new long[BLOCK_LONGS];
+        final long[] input = new long[BLOCK_LONGS];
+        final long[] zero = new long[BLOCK_LONGS];
+        final Blake2b blake = new Blake2b();
+        final byte[] h0 = new byte[Blake2b.MAX_OUTPUT_BYTES + 8];
+        final byte[] block = new byte[BLOCK_BYTES];
+        final byte[] v = new byte[Blake2b.MAX_OUTPUT_BYTES];
+        byte[] password = new byte[64];
+        byte[] salt = new byte[64];
+        byte[] expected = new byte[64];
+        byte[] tag = new byte[64];
+
+        // The parameters parsed from an encoded hash.
+        int memoryCost;
+        int iterations;
+        int parallelism;
+        int saltLength;
+        int hashLength;
+    }
+
+    private Argon2() {
+    }
+
+    /**
+     * @return String The name of the compression function in use, "scalar" or "vector".
+     */
+    public static String getCompression() {
+        return compression.getName();
+    }
+
+    /**
+     * Switch the compression function, for tests and benchmarks.
+     *
+     * @param name "scalar" or "vector".
+     *
+     * @return boolean False if the named compression function isn't available on this runtime.
+     */
+    public static boolean useCompression(String name) {
+        Argon2Compression c = "vector".equals(name) ? Argon2Compression.vector() : "scalar".equals(name) ? Argon2Compression.SCALAR : null;
+        if (c == null) {
+            return false;
+        }
+        compression = c;
+        return true;
+    }
+
+    /**
+     * Hash a password with a random salt and the default parameters.
+     *
+     * @return String The encoded hash.
+     */
+    public static String hash(CharSequence password) {
+        byte[] salt = new byte[DEFAULT_SALT_LENGTH];
+        random.nextBytes(salt);
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] &= 0x7f;
+        }
+        return hash(password, salt, DEFAULT_MEMORY, DEFAULT_ITERATIONS, DEFAULT_PARALLELISM, DEFAULT_HASH_LENGTH);
+    }
+
+    /**
+     * Hash a password.
+     *
+     * @param memory The memory cost in KiB.
+     *
+     * @return String The encoded hash.
+     */
+    public static String hash(CharSequence password, byte[] salt, int memory, int iterations, int parallelism, int hashLength) {
+        Workspace ws = acquire();
+        try {
+            int passwordLength = encodePassword(ws, password);
+            ws.tag = ensureCapacity(ws.tag, hashLength);
+            compute(ws, ws.password, passwordLength, salt, salt.length, EMPTY, EMPTY, memory, iterations, parallelism, ws.tag, hashLength);
+            Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+            return PREFIX + "m=" + memory + ",t=" + iterations + ",p=" + parallelism + "$"
+                + encoder.encodeToString(salt) + "$" + encoder.encodeToString(Arrays.copyOf(ws.tag, hashLength));
+        } finally {
+            Arrays.fill(ws.password, (byte)0);
+            release(ws);
+        }
+    }
+
+    /**
+     * @return boolean True if verify() can check the encoded hash. Otherwise,
+     *         it's another Argon2 variant or version, or not Argon2 at all.
+     */
+    public static boolean isSupported(String encoded) {
+        return encoded != null && encoded.startsWith(PREFIX);
+    }
+
+    /**
+     * Check a password against an encoded hash.
+     *
+     * @throws IllegalArgumentException If the encoded hash isn't a valid Argon2id version 19 hash,
+     *         or its parameters are over the limits described above.
+     */
+    public static boolean verify(CharSequence password, String encoded) {
+        Workspace ws = acquire();
+        try {
+            parse(ws, encoded);
+            int passwordLength = encodePassword(ws, password);
+            ws.tag = ensureCapacity(ws.tag, ws.hashLength);
+            compute(ws, ws.password, passwordLength, ws.salt, ws.saltLength, EMPTY, EMPTY,
+                    ws.memoryCost, ws.iterations, ws.parallelism, ws.tag, ws.hashLength);
+            // Compare every byte, so the time taken doesn't say where the first difference is.
+            int diff = 0;
+            for (int i = 0; i < ws.hashLength; i++) {
+                diff |= ws.tag[i] ^ ws.expected[i];
+            }
+            return diff == 0;
+        } finally {
+            Arrays.fill(ws.password, (byte)0);
+            release(ws);
+        }
+    }
+
+    /**
+     * Compute a raw Argon2id tag, with the optional secret and associated data
+     * the encoded form doesn't carry. This is mostly for checking the
+     * implementation against the RFC 9106 test vectors.
+     */
+    public static byte[] hashRaw(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                                 int memory, int iterations, int parallelism, int hashLength) {
+        Workspace ws = acquire();
+        try {
+            byte[] out = new byte[hashLength];
+            compute(ws, password, password.length, salt, salt.length, secret == null ? EMPTY : secret,
+                    associatedData == null ? EMPTY : associatedData, memory, iterations, parallelism, out, hashLength);
+            return out;
+        } finally {
+            release(ws);
+        }
+    }
+
+    static Workspace acquire() {
+        synchronized (pool) {
+            if (poolCount > 0) {
+                Workspace ws = pool[--poolCount];
+                pool[poolCount] = null;
+                return ws;
+            }
+        }
+        return new Workspace();
+    }
+
+    static void release(Workspace ws) {
+        if (ws.memory.length > MAX_POOLED_MEMORY * BLOCK_LONGS) {
+            // Don't hang on to an unusually large matrix.
+            ws.memory = new long[0];
+        }
+        synchronized (pool) {
+            if (poolCount < pool.length) {
+                pool[poolCount++] = ws;
+            }
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int length) {
+        return buffer.length >= length ? buffer : new byte[Math.max(length, buffer.length * 2)];
+    }
+
+    /**
+     * UTF-8 encode the password into ws.password without going through a String.
+     * Unpaired surrogates become '?', as they would with String.getBytes().
+     *
+     * @return int The number of bytes.
+     */
+    private static int encodePassword(Workspace ws, CharSequence password) {
+        int length = password.length();
+        ws.password = ensureCapacity(ws.password, length * 3);
+        byte[] out = ws.password;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = password.charAt(i);
+            if (c < 0x80) {
+                out[n++] = (byte)c;
+            } else if (c < 0x800) {
+                out[n++] = (byte)(0xc0 | (c >> 6));
+                out[n++] = (byte)(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(password.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, password.charAt(++i));
+                out[n++] = (byte)(0xf0 | (cp >> 18));
+                out[n++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                out[n++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                out[n++] = (byte)(0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[n++] = '?';
+            } else {
+                out[n++] = (byte)(0xe0 | (c >> 12));
+                out[n++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                out[n++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Parse $argon2id$v=19$m=M,t=T,p=P$salt$hash into the workspace.
+     */
+    private static void parse(Workspace ws, String encoded) {
+        if (!isSupported(encoded)) {
+            throw new IllegalArgumentException("Not an Argon2id version 19 hash.");
+        }
+        int pos = PREFIX.length();
+        pos = expect(encoded, pos, "m=");
+        ws.memoryCost = parseInt(encoded, pos);
+        pos = expect(encoded, skipDigits(encoded, pos), ",t=");
+        ws.iterations = parseInt(encoded, pos);
+        pos = expect(encoded, skipDigits(encoded, pos), ",p=");
+        ws.parallelism = parseInt(encoded, pos);
+        if (ws.iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("The Argon2 hash's iteration count of " + ws.iterations + " is more than the limit of " + MAX_ITERATIONS + ".");
+        }
+        if (ws.parallelism > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("The Argon2 hash's parallelism of " + ws.parallelism + " is more than the limit of " + MAX_PARALLELISM + ".");
+        }
+        if (ws.parallelism > 0 && blockCount(ws.memoryCost, ws.parallelism) > MAX_MEMORY) {
+            throw new IllegalArgumentException("The Argon2 hash's memory cost of " + blockCount(ws.memoryCost, ws.parallelism)
+                                               + " KiB is more than the limit of " + MAX_MEMORY + " KiB.");
+        }
+        pos = expect(encoded, skipDigits(encoded, pos), "$");
+        int end = encoded.indexOf('$', pos);
+        if (end < 0) {
+            throw new IllegalArgumentException("The Argon2 hash has no hash value.");
+        }
+        ws.salt = ensureCapacity(ws.salt, end - pos);
+        ws.saltLength = decodeBase64(encoded, pos, end, ws.salt);
+        ws.expected = ensureCapacity(ws.expected, encoded.length() - end - 1);
+        ws.hashLength = decodeBase64(encoded, end + 1, encoded.length(), ws.expected);
+    }
+
+    private static int expect(String s, int pos, String text) {
+        if (!s.startsWith(text, pos)) {
+            throw new IllegalArgumentException("Invalid Argon2 hash parameters.");
+        }
+        return pos + text.length();
+    }
+
+    private static int skipDigits(String s, int pos) {
+        while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int parseInt(String s, int pos) {
+        int end = skipDigits(s, pos);
+        if (end == pos || end - pos > 9) {
+            throw new IllegalArgumentException("Invalid Argon2 hash parameters.");
+        }
+        int value = 0;
+        for (int i = pos; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        throw new IllegalArgumentException("Invalid base64 in the Argon2 hash.");
+    }
+
+    /**
+     * Decode unpadded (or padded) standard base64.
+     *
+     * @return int The number of bytes written to out.
+     */
+    private static int decodeBase64(String s, int start, int end, byte[] out) {
+        while (end > start && s.charAt(end - 1) == '=') {
+            end--;
+        }
+        int n = 0, bits = 0, count = 0;
+        for (int i = start; i < end; i++) {
+            bits = (bits << 6) | base64Value(s.charAt(i));
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                out[n++] = (byte)(bits >> count);
+            }
+        }
+        return n;
+    }
+
+    static long getLong(byte[] b, int offset) {
+        return (b[offset] & 0xffL)
+            | (b[offset + 1] & 0xffL) << 8
+            | (b[offset + 2] & 0xffL) << 16
+            | (b[offset + 3] & 0xffL) << 24
+            | (b[offset + 4] & 0xffL) << 32
+            | (b[offset + 5] & 0xffL) << 40
+            | (b[offset + 6] & 0xffL) << 48
+            | (b[offset + 7] & 0xffL) << 56;
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            b[offset + i] = (byte)(value >>> (8 * i));
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte)(value >>> (8 * i));
+        }
+    }
+
+    /**
+     * @return long The number of 1 KiB blocks compute() uses. The memory is rounded down to
+     *         a multiple of 4 blocks per lane, with a minimum of 8.
+     */
+    private static long blockCount(int memory, int parallelism) {
+        long segmentLength = Math.max(memory, 2L * SYNC_POINTS * parallelism) / ((long)parallelism * SYNC_POINTS);
+        return segmentLength * SYNC_POINTS * parallelism;
+    }
+
+    /**
+     * The Argon2id computation. The tag is written to out.
+     */
+    private static void compute(Workspace ws, byte[] password, int passwordLength, byte[] salt, int saltLength,
+                                byte[] secret, byte[] associatedData, int memory, int iterations, int parallelism,
+                                byte[] out, int hashLength) {
+        if (parallelism < 1 || parallelism > 0xffffff) {
+            throw new IllegalArgumentException("Invalid Argon2 parallelism " + parallelism);
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Invalid Argon2 iterations " + iterations);
+        }
+        if (hashLength < 4) {
+            throw new IllegalArgumentException("Invalid Argon2 hash length " + hashLength);
+        }
+        if (saltLength < 8) {
+            throw new IllegalArgumentException("The Argon2 salt must be at least 8 bytes.");
+        }
+        // The memory is rounded down to a multiple of 4 blocks per lane, with a minimum of 8.
+        int segmentLength = Math.max(memory, 2 * SYNC_POINTS * parallelism) / (parallelism * SYNC_POINTS);
+        int laneLength = segmentLength * SYNC_POINTS;
+        int blocks = laneLength * parallelism;
+        if (memory < 0 || blocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Invalid Argon2 memory " + memory);
+        }
+        if (ws.memory.length < blocks * BLOCK_LONGS) {
+            ws.memory = new long[blocks * BLOCK_LONGS];
+        }
+
+        Blake2b blake = ws.blake;
+        blake.init(Blake2b.MAX_OUTPUT_BYTES);
+        blake.updateInt(parallelism);
+        blake.updateInt(hashLength);
+        blake.updateInt(memory);
+        blake.updateInt(iterations);
+        blake.updateInt(VERSION);
+        blake.updateInt(TYPE_ID);
+        blake.updateInt(passwordLength);
+        blake.update(password, 0, passwordLength);
+        blake.updateInt(saltLength);
+        blake.update(salt, 0, saltLength);
+        blake.updateInt(secret.length);
+        blake.update(secret, 0, secret.length);
+        blake.updateInt(associatedData.length);
+        blake.update(associatedData, 0, associatedData.length);
+        blake.digest(ws.h0, 0);
+
+        // The first two blocks of each lane come from H0.
+        long[] mem = ws.memory;
+        for (int lane = 0; lane < parallelism; lane++) {
+            for (int j = 0; j < 2; j++) {
+                putInt(ws.h0, 64, j);
+                putInt(ws.h0, 68, lane);
+                hashLong(ws, ws.block, BLOCK_BYTES, ws.h0, ws.h0.length);
+                int offset = (lane * laneLength + j) * BLOCK_LONGS;
+                for (int i = 0; i < BLOCK_LONGS; i++) {
+                    mem[offset + i] = getLong(ws.block, i * 8);
+                }
+            }
+        }
+
+        for (int pass = 0; pass < iterations; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                for (int lane = 0; lane < parallelism; lane++) {
+                    fillSegment(ws, pass, lane, slice, parallelism, laneLength, segmentLength, blocks, iterations);
+                }
+            }
+        }
+
+        // XOR the last block of each lane, and hash that to get the tag.
+        long[] last = ws.r;
+        System.arraycopy(mem, (laneLength - 1) * BLOCK_LONGS, last, 0, BLOCK_LONGS);
+        for (int lane = 1; lane < parallelism; lane++) {
+            int offset = (lane * laneLength + laneLength - 1) * BLOCK_LONGS;
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                last[i] ^= mem[offset + i];
+            }
+        }
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            putLong(ws.block, i * 8, last[i]);
+        }
+        hashLong(ws, out, hashLength, ws.block, BLOCK_BYTES);
+    }
+
+    /**
+     * The variable length hash function H' from RFC 9106 section 3.3.
+     */
+    private static void hashLong(Workspace ws, byte[] out, int outLength, byte[] in, int inLength) {
+        Blake2b blake = ws.blake;
+        if (outLength <= Blake2b.MAX_OUTPUT_BYTES) {
+            blake.init(outLength);
+            blake.updateInt(outLength);
+            blake.update(in, 0, inLength);
+            blake.digest(out, 0);
+            return;
+        }
+        byte[] v = ws.v;
+        blake.init(Blake2b.MAX_OUTPUT_BYTES);
+        blake.updateInt(outLength);
+        blake.update(in, 0, inLength);
+        blake.digest(v, 0);
+        System.arraycopy(v, 0, out, 0, 32);
+        int pos = 32, remaining = outLength - 32;
+        while (remaining > Blake2b.MAX_OUTPUT_BYTES) {
+            blake.init(Blake2b.MAX_OUTPUT_BYTES);
+            blake.update(v, 0, Blake2b.MAX_OUTPUT_BYTES);
+            blake.digest(v, 0);
+            System.arraycopy(v, 0, out, pos, 32);
+            pos += 32;
+            remaining -= 32;
+        }
+        blake.init(remaining);
+        blake.update(v, 0, Blake2b.MAX_OUTPUT_BYTES);
+        blake.digest(out, pos);
+    }
+
+    private static void fillSegment(Workspace ws, int pass, int lane, int slice, int lanes, int laneLength,
+                                    int segmentLength, int blocks, int iterations) {
+        long[] mem = ws.memory;
+        // Argon2id uses Argon2i addressing for the first half of the first pass, and Argon2d after that.
+        boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+        if (dataIndependent) {
+            Arrays.fill(ws.input, 0);
+            ws.input[0] = pass;
+            ws.input[1] = lane;
+            ws.input[2] = slice;
+            ws.input[3] = blocks;
+            ws.input[4] = iterations;
+            ws.input[5] = TYPE_ID;
+        }
+        int start = 0;
+        if (pass == 0 && slice == 0) {
+            // The first two blocks are already filled.
+            start = 2;
+            if (dataIndependent) {
+                nextAddresses(ws);
+            }
+        }
+        int current = lane * laneLength + slice * segmentLength + start;
+        int previous = current % laneLength == 0 ? current + laneLength - 1 : current - 1;
+        for (int i = start; i < segmentLength; i++, current++, previous++) {
+            if (current % laneLength == 1) {
+                previous = current - 1;
+            }
+            long pseudoRandom;
+            if (dataIndependent) {
+                if (i % BLOCK_LONGS == 0) {
+                    nextAddresses(ws);
+                }
+                pseudoRandom = ws.address[i % BLOCK_LONGS];
+            } else {
+                pseudoRandom = mem[previous * BLOCK_LONGS];
+            }
+            int refLane = pass == 0 && slice == 0 ? lane : (int)((pseudoRandom >>> 32) % lanes);
+            int refIndex = indexAlpha(pass, slice, i, pseudoRandom & 0xffffffffL, refLane == lane, laneLength, segmentLength);
+            compression.fillBlock(mem, previous * BLOCK_LONGS, mem, (refLane * laneLength + refIndex) * BLOCK_LONGS,
+                      mem, current * BLOCK_LONGS, pass != 0, ws.r, ws.z);
+        }
+    }
+
+    private static void nextAddresses(Workspace ws) {
+        ws.input[6]++;
+        compression.fillBlock(ws.zero, 0, ws.input, 0, ws.address, 0, false, ws.r, ws.z);
+        compression.fillBlock(ws.zero, 0, ws.address, 0, ws.address, 0, false, ws.r, ws.z);
+    }
+
+    /**
+     * Map a pseudo random value to the index of the reference block in its lane.
+     */
+    private static int indexAlpha(int pass, int slice, int index, long pseudoRandom, boolean sameLane,
+                                  int laneLength, int segmentLength) {
+        long area;
+        if (pass == 0) {
+            if (slice == 0) {
+                area = index - 1;
+            } else if (sameLane) {
+                area = slice * segmentLength + index - 1;
+            } else {
+                area = slice * segmentLength + (index == 0 ? -1 : 0);
+            }
+        } else if (sameLane) {
+            area = laneLength - segmentLength + index - 1;
+        } else {
+            area = laneLength - segmentLength + (index == 0 ? -1 : 0);
+        }
+        long relative = (pseudoRandom * pseudoRandom) >>> 32;
+        relative = area - 1 - ((area * relative) >>> 32);
+        long startPosition = pass == 0 || slice == SYNC_POINTS - 1 ? 0 : (slice + 1) * segmentLength;
+        return (int)((startPosition + relative) % laneLength);
+    }
+}
@@ -0,0 +1,120 @@
+package com.mhsoftware.authdemo;
+
+/**
+ * The Argon2 compression function G, with plain long arithmetic.
+ *
+ * This is almost all of the CPU time of an Argon2 hash. On JDK 17 and later,
+ * the multi-release JAR also has VectorArgon2Compression, which overrides
+ * fillBlock() with the jdk.incubator.vector API. It's used when the system
+ * property authdemo.argon2.vector is true, the class can be loaded (the JVM
+ * has to be started with --add-modules jdk.incubator.vector), and the CPU
+ * has 256 bit vectors. Otherwise, this is what's used.
+ *
+ * The vector version isn't the default because on JDK 17 it's slower. Argon2
+ * is mostly dependent 64 bit multiplies and rotates with only four G functions
+ * of parallelism in each step, and the lane shuffles for the diagonals cost
+ * more than the wider operations save. Run the JMH benchmark (mvn -Pjmh, see
+ * the README) before turning it on for a different JDK or CPU.
+ *
+ * Both produce exactly the same output.
+ *
+ * @author gsexton
+ */
+class Argon2Compression {
+
+    static final Argon2Compression SCALAR = new Argon2Compression();
+
+    private static final String VECTOR_CLASS = "com.mhsoftware.authdemo.VectorArgon2Compression";
+
+    static final int BLOCK_LONGS = Argon2.BLOCK_LONGS;
+
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * @return Argon2Compression The vector version, or null if this runtime can't use it.
+     */
+    static Argon2Compression vector() {
+        try {
+            return (Argon2Compression)Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        } catch (Throwable t) {
+            // Java 8, the module wasn't added, or the hardware doesn't have the vector width.
+            return null;
+        }
+    }
+
+    static Argon2Compression select() {
+        if (Boolean.parseBoolean(System.getProperty("authdemo.argon2.vector", "false"))) {
+            Argon2Compression vector = vector();
+            if (vector != null) {
+                return vector;
+            }
+        }
+        return SCALAR;
+    }
+
+    /**
+     * The compression function G. out = P(x ^ y) ^ x ^ y, XORed with the old
+     * contents of out when withXor is set (every pass after the first).
+     */
+    void fillBlock(long[] x, int xOffset, long[] y, int yOffset, long[] out, int outOffset,
+                   boolean withXor, long[] r, long[] z) {
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            r[i] = x[xOffset + i] ^ y[yOffset + i];
+        }
+        if (withXor) {
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                z[i] = r[i] ^ out[outOffset + i];
+            }
+        } else {
+            System.arraycopy(r, 0, z, 0, BLOCK_LONGS);
+        }
+        // Rows of 16 words.
+        for (int i = 0; i < 8; i++) {
+            int b = 16 * i;
+            permute(r, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                    b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+        }
+        // Columns of pairs of words.
+        for (int i = 0; i < 8; i++) {
+            int b = 2 * i;
+            permute(r, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                    b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+        }
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            out[outOffset + i] = z[i] ^ r[i];
+        }
+    }
+
+    private static void permute(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                                int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        gb(v, v0, v4, v8, v12);
+        gb(v, v1, v5, v9, v13);
+        gb(v, v2, v6, v10, v14);
+        gb(v, v3, v7, v11, v15);
+        gb(v, v0, v5, v10, v15);
+        gb(v, v1, v6, v11, v12);
+        gb(v, v2, v7, v8, v13);
+        gb(v, v3, v4, v9, v14);
+    }
+
+    /**
+     * The BLAKE2b G function with the Argon2 multiplication added.
+     */
+    private static void gb(long[] v, int a, int b, int c, int d) {
+        long va = v[a], vb = v[b], vc = v[c], vd = v[d];
+        va = va + vb + 2 * (va & 0xffffffffL) * (vb & 0xffffffffL);
+        vd = Long.rotateRight(vd ^ va, 32);
+        vc = vc + vd + 2 * (vc & 0xffffffffL) * (vd & 0xffffffffL);
+        vb = Long.rotateRight(vb ^ vc, 24);
+        va = va + vb + 2 * (va & 0xffffffffL) * (vb & 0xffffffffL);
+        vd = Long.rotateRight(vd ^ va, 16);
+        vc = vc + vd + 2 * (vc & 0xffffffffL) * (vd & 0xffffffffL);
+        vb = Long.rotateRight(vb ^ vc, 63);
+        v[a] = va;
+        v[b] = vb;
+        v[c] = vc;
+        v[d] = vd;
+    }
+}
@@ -0,0 +1,18 @@
+package com.mhsoftware.authdemo;
+
+/**
+ * The kinds of events written to the audit log.
+ *
+ * @author gsexton
+ */
+public enum AuditEventType {
+    LOGIN_SUCCESS,
+    LOGIN_FAILURE,
+    /** The account was disabled because of too many bad logins. */
+    ACCOUNT_LOCKOUT,
+    PASSWORD_CHANGE,
+    ACCOUNT_ADD,
+    ACCOUNT_ENABLE,
+    ACCOUNT_DISABLE,
+    ACCOUNT_DELETE
+}
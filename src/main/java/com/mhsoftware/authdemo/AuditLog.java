@@ -0,0 +1,335 @@
+package com.mhsoftware.authdemo;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous audit log of authentication events.
+ *
+ * Producers (AuthenticationProvider, AccountStore) publish events into a
+ * preallocated ring buffer. Publishing never blocks and never touches the
+ * disk. If the buffer is full, the event is dropped and counted.
+ *
+ * A single background thread drains the buffer, formats the events as
+ * JSON lines, and appends them in batches to the audit file. When the file
+ * exceeds the maximum size, it's rotated to audit.log.1, audit.log.2, etc.
+ *
+ * The ring buffer is the usual sequence based design. A producer claims a
+ * sequence number with a CAS on head, fills in the slot, and then publishes
+ * the slot by storing its sequence number in the published array. The writer
+ * reads slots in order while the published sequence matches the one it
+ * expects, and then advances tail to release the slots back to producers.
+ *
+ * The defaults can be changed with the system properties authdemo.audit.file,
+ * authdemo.audit.bufferSize, authdemo.audit.maxFileSize, and
+ * authdemo.audit.maxFiles.
+ *
+ * @author gsexton
+ */
+public class AuditLog {
+
+    public static final String AUDIT_FILE = "audit.log";
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_MAX_FILE_SIZE = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    /** The maximum number of events written between flushes. */
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * A preallocated slot in the ring buffer. The fields are written by the
+     * producer that claimed the slot, and read by the writer thread after
+     * the slot is published.
+     */
+    private static class AuditEvent {
+        long timestamp;
+        AuditEventType type;
+        int userID;
+        String userName;
+        String detail;
+    }
+
+    private static final AuditLog instance = new AuditLog(new File(System.getProperty("authdemo.audit.file", AUDIT_FILE)),
+                                                          Integer.getInteger("authdemo.audit.bufferSize", DEFAULT_BUFFER_SIZE),
+                                                          Long.getLong("authdemo.audit.maxFileSize", DEFAULT_MAX_FILE_SIZE),
+                                                          Integer.getInteger("authdemo.audit.maxFiles", DEFAULT_MAX_FILES));
+
+    private final AuditEvent[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /*
+        These are only touched by the writer thread.
+    */
+    private Writer out;
+    private long fileSize;
+    private final StringBuilder batch = new StringBuilder(BATCH_SIZE * 128);
+    private final DateFormat df;
+
+    public static AuditLog getInstance() {
+        return instance;
+    }
+
+    private AuditLog(File file, int bufferSize, long maxFileSize, int maxFiles) {
+        int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) * 2 - 1);
+        slots = new AuditEvent[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new AuditEvent();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        writerThread = new Thread(this::runWriter, "authdemo-audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "authdemo-audit-shutdown"));
+    }
+
+    /**
+     * Publish an event. This never blocks.
+     *
+     * @param user The affected account. May be null.
+     * @param detail Optional free form text.
+     *
+     * @return boolean False if the buffer was full and the event was dropped.
+     */
+    public boolean publish(AuditEventType type, UserAccount user, String detail) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail.get() >= slots.length) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        int index = (int)(seq & mask);
+        AuditEvent event = slots[index];
+        event.timestamp = System.currentTimeMillis();
+        event.type = type;
+        event.userID = user == null ? -1 : user.userID;
+        event.userName = user == null ? null : user.userName;
+        event.detail = detail;
+        published.lazySet(index, seq);
+        return true;
+    }
+
+    /** @return File The current audit file. Rotated files have .1, .2, etc. appended. */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return long The number of events dropped because the buffer was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** @return long The number of events accepted into the buffer. */
+    public long getPublishedCount() {
+        return head.get();
+    }
+
+    /** @return long The number of events the writer has appended to the file. */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * Wait until the writer has written everything published before this call.
+     *
+     * @return boolean True if the writer caught up before the timeout.
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = head.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (written.get() < target) {
+            if (System.nanoTime() > deadline || !writerThread.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(IDLE_PARK_NANOS / 5);
+        }
+        return true;
+    }
+
+    private void runWriter() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // Pick up anything published while we were stopping.
+        while (drain() > 0) {
+        }
+        closeFile();
+    }
+
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Format up to BATCH_SIZE published events and append them to the file.
+     *
+     * @return int The number of events drained.
+     */
+    private int drain() {
+        long next = tail.get();
+        int count = 0;
+        batch.setLength(0);
+        while (count < BATCH_SIZE) {
+            int index = (int)(next & mask);
+            if (published.get(index) != next) {
+                break;
+            }
+            format(next, slots[index]);
+            next++;
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // Release the slots before doing any I/O so producers aren't held up by the disk.
+        tail.set(next);
+        write(batch);
+        written.set(next);
+        return count;
+    }
+
+    private void format(long seq, AuditEvent event) {
+        batch.append("{\"time\":\"").append(df.format(new Date(event.timestamp)))
+            .append("\",\"seq\":").append(seq)
+            .append(",\"event\":\"").append(event.type).append('"');
+        if (event.userID >= 0) {
+            batch.append(",\"userID\":").append(event.userID);
+        }
+        if (event.userName != null) {
+            batch.append(",\"userName\":");
+            appendJsonString(event.userName);
+        }
+        if (event.detail != null) {
+            batch.append(",\"detail\":");
+            appendJsonString(event.detail);
+        }
+        batch.append("}\n");
+        event.userName = null;
+        event.detail = null;
+    }
+
+    private void appendJsonString(String s) {
+        batch.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                batch.append("\\\"");
+                break;
+            case '\\':
+                batch.append("\\\\");
+                break;
+            case '\n':
+                batch.append("\\n");
+                break;
+            case '\r':
+                batch.append("\\r");
+                break;
+            case '\t':
+                batch.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    batch.append(String.format("\\u%04x", (int)c));
+                } else {
+                    batch.append(c);
+                }
+            }
+        }
+        batch.append('"');
+    }
+
+    private void write(CharSequence text) {
+        try {
+            if (out == null) {
+                openFile();
+            }
+            out.append(text);
+            out.flush();
+            fileSize += text.length();
+            if (fileSize >= maxFileSize) {
+                rotate();
+            }
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+            closeFile();
+        }
+    }
+
+    private void openFile() throws IOException {
+        out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        fileSize = file.length();
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ioe) {
+                System.err.println(ioe);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Rotate audit.log to audit.log.1, audit.log.1 to audit.log.2, etc. The oldest
+     * file is deleted.
+     */
+    private void rotate() {
+        closeFile();
+        File oldest = new File(file.getPath() + "." + (maxFiles - 1));
+        if (oldest.exists() && !oldest.delete()) {
+            System.err.println("Unable to delete old audit file " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File src = i == 0 ? file : new File(file.getPath() + "." + i);
+            if (src.exists() && !src.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                System.err.println("Unable to rotate audit file " + src);
+            }
+        }
+    }
+}
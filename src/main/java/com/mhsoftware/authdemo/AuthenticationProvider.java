@@ -19,7 +19,9 @@ public abstract class AuthenticationProvider {
 
 
     /**
-     * Verify preconditions are met. For example, is the account enabled.
+     * Verify preconditions are met. For example, is the account enabled. This doesn't 
+     * audit anything, since it's also used before changing a password. Logins use 
+     * verifyLoginAllowed(). 
      */
     public void verifyLoginPreconditions(UserAccount user) throws AuthenticationException {
         if (!user.enabled) {
@@ -39,6 +41,19 @@ public abstract class AuthenticationProvider {
     }
 
 
+    /**
+     * verifyLoginPreconditions() for a login. If they aren't met, the login failure is 
+     * audited. 
+     */
+    public void verifyLoginAllowed(UserAccount user) throws AuthenticationException {
+        try {
+            verifyLoginPreconditions(user);
+        } catch (AuthenticationException ae) {
+            AuditLog.getInstance().publish(AuditEventType.LOGIN_FAILURE, user, ae.getMessage());
+            throw ae;
+        }
+    }
+
     /**
      * Verify the supplied password is correct for the user account. 
      *  
@@ -56,8 +71,13 @@ public abstract class AuthenticationProvider {
      */
     public abstract void changePassword(UserAccount user, String password) throws PasswordValidationException;
 
+    /**
+     * @return PasswordPolicyValidator The current validator for the provider's policy, so 
+     *         policy changes are picked up. Callers should get it once per operation. 
+     */
     public PasswordPolicyValidator getPasswordPolicyValidator() {
-        return policyValidator;
+        PasswordPolicyValidator validator = policyValidator;
+        return validator == null ? null : validator.current();
     }
 
     public void setPasswordPolicyValidator(PasswordPolicyValidator policyValidator) {
@@ -85,27 +105,32 @@ public abstract class AuthenticationProvider {
         if (success) {
             user.badLoginCount = 0;
             user.lastSignin = new Date(System.currentTimeMillis());
+            AuditLog.getInstance().publish(AuditEventType.LOGIN_SUCCESS, user, null);
         } else {
             if (user.badLoginCount < 0) {
                 user.badLoginCount = 0;
             }
             user.badLoginCount++;
+            user.lastBadSignin = new Date(System.currentTimeMillis());
+            AuditLog.getInstance().publish(AuditEventType.LOGIN_FAILURE, user, "badLoginCount=" + user.badLoginCount);
             PasswordPolicyValidator policyValidator = getPasswordPolicyValidator();
             if (policyValidator != null) {
                 /* 
-                TODO:   The system policy should be consulted, and if the bad login
-                        count exceeds a specific value, the account should be disabled.
-                        This gets complex, if you want to do things like specify policies
-                        like: No more than 3 bad login attempts in a 5 minute window...
-                 f
-                Map<String, Object> policy = policyValidator.getPolicy(); 
+                    If the policy has a maxBadLogins value, disable the account once the 
+                    number of consecutive bad logins reaches it. Re-enabling it is an 
+                    administrative action. 
                  
-                if (policy.containsKey("badLoginCount") && user.badLoginCount>=((Integer)policy.get("badLoginCount")).intValue()) { 
-                    user.enabled=false; 
-                } 
+                    More complex policies like "No more than 3 bad login attempts in a 
+                    5 minute window" aren't implemented. 
                 */
+                Object maxBadLogins = policyValidator.getPolicy().get("maxBadLogins");
+                if (maxBadLogins instanceof Integer && user.badLoginCount >= ((Integer)maxBadLogins).intValue()) {
+                    user.enabled = false;
+                    // Audited here as a lockout, so the store doesn't audit it again as ACCOUNT_DISABLE.
+                    user.lockedOut = true;
+                    AuditLog.getInstance().publish(AuditEventType.ACCOUNT_LOCKOUT, user, "badLoginCount=" + user.badLoginCount);
+                }
             }
-            user.lastBadSignin = new Date(System.currentTimeMillis());
         }
         return true;
     }
@@ -15,6 +15,11 @@ import com.password4j.*;
  * Given time constraints and since I'm not a cryptography expert, so I'm not vetting 
  * algorithms, optimizing parameters, etc. 
  *  
+ * Hashing and checking now go through the Argon2 class, which reuses its working 
+ * memory instead of allocating it for every login. It uses the same encoding and 
+ * parameters as Password4J. Password4J is still used to check any other kind of 
+ * hash (Argon2i, an older Argon2 version). 
+ *  
  * @author gsexton (12/10/21)
  */
 public class AuthenticationProviderImpl extends AuthenticationProvider {
@@ -31,9 +36,9 @@ public class AuthenticationProviderImpl extends AuthenticationProvider {
      */
     public boolean verifyPassword(UserAccount user, String password) throws AuthenticationException {
 
-        verifyLoginPreconditions(user);
+        verifyLoginAllowed(user);
 
-        boolean verified = Password.check(password, user.password).withArgon2();
+        boolean verified = checkPassword(user, password);
 
         postLogin(user, verified);
 
@@ -43,6 +48,23 @@ public class AuthenticationProviderImpl extends AuthenticationProvider {
         return true;
     }
 
+    /**
+     * Check the password against the account's hash, and nothing else. This is 
+     * the CPU heavy part of verifyPassword(), so LoginPipeline runs it on its 
+     * own pool. 
+     */
+    public boolean checkPassword(UserAccount user, String password) {
+        if (Argon2.isSupported(user.password)) {
+            try {
+                return Argon2.verify(password, user.password);
+            } catch (IllegalArgumentException iae) {
+                System.err.println("The password hash for " + user.userName + " is invalid. " + iae.getMessage());
+                return false;
+            }
+        }
+        return Password.check(password, user.password).withArgon2();
+    }
+
     /**
      * Change the password for the account. 
      *  
@@ -51,14 +73,23 @@ public class AuthenticationProviderImpl extends AuthenticationProvider {
      * be able to change the password for the account. 
      */
     public void changePassword(UserAccount user, String password) throws PasswordValidationException {
+        setPassword(user, password);
+        AuditLog.getInstance().publish(AuditEventType.PASSWORD_CHANGE, user, null);
+    }
+
+    /**
+     * changePassword() without the audit event. This is for accounts that aren't in 
+     * a store yet, like the ones AccountImporter builds. Adding them to the store 
+     * audits them. 
+     */
+    public void setPassword(UserAccount user, String password) throws PasswordValidationException {
         PasswordPolicyValidator policyValidator = getPasswordPolicyValidator();
         if (policyValidator != null) {
             policyValidator.validatePassword(password);
         }
-        // Add a random salt so that even if any two passwords are the same,
-        // the output of the Argon2 function is unique.
-        Hash hash = Password.hash(password).addRandomSalt(16).withArgon2();
-        user.password = hash.getResult();
+        // Argon2.hash() adds a random salt so that even if any two passwords are 
+        // the same, the output of the Argon2 function is unique.
+        user.password = Argon2.hash(password);
         user.pwdChangeDate = new Date(System.currentTimeMillis());
     }
 }
@@ -0,0 +1,328 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The cold tier of an AccountStore: accounts that haven't been used for a
+ * while, kept in account-info.yaml.cold instead of the YAML file.
+ *
+ * The file is written once and then only read. Each account is an
+ * AccountCodec record, and at the end there's a directory with each
+ * account's location and a stub of it (userID, userName, fullName,
+ * emailAddress and enabled, but no password hash or dates). Opening the file
+ * reads the directory and puts the stubs in an AccountIndex, so the cold
+ * accounts can be found by the same lookups as the hot ones without having
+ * them in memory. The full account is read from its location when it's
+ * needed.
+ *
+ * An account that's used again is promoted: AccountStore moves it into the
+ * hot store. Its record stays in this file, but the hot copy takes
+ * precedence, and it's dropped the next time the file is rewritten. Any
+ * other change (demoting more accounts, deleting accounts, or a bulk
+ * update of cold accounts) rewrites the whole file with rewrite(), which is
+ * why AccountStore does those in batches.
+ *
+ * The format is:
+ *
+ * int magic, int version, int count, count * account (AccountCodec),
+ * count * (long offset, int length, stub (AccountCodec)), long directoryOffset, long checksum
+ *
+ * The checksum is the CRC-32 of everything before it, and it's checked when
+ * the file is opened. The offsets come from DataOutputStream.size(), so the
+ * records have to fit in the first 2GB of the file.
+ *
+ * This class isn't thread safe. AccountStore does the locking.
+ *
+ * @author gsexton
+ */
+final class ColdStore {
+
+    static final String SUFFIX = ".cold";
+
+    private static final int MAGIC = 0x41444353;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int TRAILER_LENGTH = 16;
+
+    private final File file;
+    private FileChannel channel;
+    /** Where each account in the file is, as { offset, length }. This includes promoted accounts. */
+    private final Map<Integer, long[]> locations = new HashMap<>();
+    /** Stubs of the accounts that are only in this file, and haven't been promoted. */
+    private AccountIndex index = new AccountIndex();
+
+    private ColdStore(File file) {
+        this.file = file;
+    }
+
+    static File coldFile(File storeFile) {
+        return new File(storeFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Open the cold file for storeFile, if there is one.
+     *
+     * @param isHot True for the userIDs in the hot store. Those accounts have been promoted, so they
+     *              aren't indexed here.
+     *
+     * @throws IOException If the file can't be read or is damaged.
+     */
+    static ColdStore open(File storeFile, IntPredicate isHot) throws IOException {
+        ColdStore cold = new ColdStore(coldFile(storeFile));
+        if (cold.file.exists()) {
+            cold.load(isHot);
+        }
+        return cold;
+    }
+
+    private void load(IntPredicate isHot) throws IOException {
+        long length = file.length();
+        long directoryOffset;
+        long checksum;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (length < HEADER_LENGTH + TRAILER_LENGTH || raf.readInt() != MAGIC) {
+                throw new IOException(file + " is not a cold account file.");
+            }
+            if (raf.readInt() != VERSION) {
+                throw new IOException(file + " is a version of the cold account file this version can't read.");
+            }
+            raf.seek(length - TRAILER_LENGTH);
+            directoryOffset = raf.readLong();
+            checksum = raf.readLong();
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file), 65536)) {
+            // The checksum stream is above the buffer, so it only sees what's been read, and not the checksum.
+            DataInputStream in = new DataInputStream(new CheckedInputStream(is, crc));
+            in.skipBytes(HEADER_LENGTH - 4);
+            int count = in.readInt();
+            // The records are only needed for the checksum. CheckedInputStream.skip() reads what it skips.
+            long remaining = directoryOffset - HEADER_LENGTH;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                remaining -= skipped;
+            }
+            List<UserAccount> stubs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                int recordLength = in.readInt();
+                UserAccount stub = AccountCodec.readAccount(in);
+                locations.put(stub.userID, new long[] { offset, recordLength });
+                if (!isHot.test(stub.userID)) {
+                    stubs.add(stub);
+                }
+            }
+            in.readLong();
+            if (crc.getValue() != checksum) {
+                throw new IOException(file + " is damaged. Its checksum doesn't match its contents.");
+            }
+            index = new AccountIndex(stubs);
+        } catch (EOFException eofe) {
+            throw new IOException(file + " is incomplete.", eofe);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /** @return int The number of accounts that are only in the cold file. */
+    int size() {
+        return index.size();
+    }
+
+    /** @return boolean True if the file has a record for userID, even if the account has been promoted. */
+    boolean contains(int userID) {
+        return locations.containsKey(userID);
+    }
+
+    /** @return boolean True if userName belongs to an account that's only in the cold file. */
+    boolean hasUserName(String userName) {
+        return index.getByUserName(userName) != null;
+    }
+
+    UserAccount getByUserName(String userName) throws IOException {
+        UserAccount stub = index.getByUserName(userName);
+        return stub == null ? null : read(stub.userID);
+    }
+
+    UserAccount getByID(int userID) throws IOException {
+        return index.getByID(userID) == null ? null : read(userID);
+    }
+
+    List<UserAccount> getByEmail(String emailAddress) throws IOException {
+        List<UserAccount> result = new ArrayList<>();
+        for (UserAccount stub: index.getByEmail(emailAddress)) {
+            result.add(read(stub.userID));
+        }
+        return result;
+    }
+
+    List<UserAccount> findByPrefix(String prefix, int limit) throws IOException {
+        List<UserAccount> result = new ArrayList<>();
+        for (UserAccount stub: index.findByPrefix(prefix, limit)) {
+            result.add(read(stub.userID));
+        }
+        return result;
+    }
+
+    /**
+     * Stop treating userID as cold, because it's been promoted to the hot store.
+     */
+    void promoted(int userID) {
+        index.remove(userID);
+    }
+
+    /**
+     * Read one account from the file.
+     */
+    UserAccount read(int userID) throws IOException {
+        long[] location = locations.get(userID);
+        ByteBuffer buffer = ByteBuffer.allocate((int)location[1]);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, location[0] + buffer.position()) < 0) {
+                throw new EOFException(file + " ended in the middle of account " + userID + ".");
+            }
+        }
+        return AccountCodec.readAccount(new DataInputStream(new ByteArrayInputStream(buffer.array())));
+    }
+
+    /**
+     * @return List&lt;UserAccount&gt; The accounts that are only in the cold file, in the order they're in the file.
+     */
+    List<UserAccount> readAll() throws IOException {
+        List<Map.Entry<Integer, long[]>> cold = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> me: locations.entrySet()) {
+            if (index.getByID(me.getKey()) != null) {
+                cold.add(me);
+            }
+        }
+        cold.sort(Comparator.comparingLong(me -> me.getValue()[0]));
+        List<UserAccount> result = new ArrayList<>(cold.size());
+        for (Map.Entry<Integer, long[]> me: cold) {
+            result.add(read(me.getKey()));
+        }
+        return result;
+    }
+
+    /**
+     * Write a new cold file, and switch to it. The file is written under a temporary
+     * name and renamed, so if anything goes wrong, the old file is still there.
+     *
+     * @param change Applied to each account that's only in the cold file. It returns the
+     *               account to keep (changed or not), or null to drop it. Promoted
+     *               accounts are always dropped.
+     * @param add Accounts to add.
+     */
+    void rewrite(Function<UserAccount, UserAccount> change, Collection<UserAccount> add) throws IOException {
+        List<UserAccount> accounts = new ArrayList<>();
+        for (UserAccount user: readAll()) {
+            UserAccount kept = change.apply(user);
+            if (kept != null) {
+                accounts.add(kept);
+            }
+        }
+        accounts.addAll(add);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Map<Integer, long[]> written = new HashMap<>();
+        CRC32 crc = new CRC32();
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                // size() is where the next record starts.
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc), 65536));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(accounts.size());
+                for (UserAccount user: accounts) {
+                    long offset = out.size();
+                    AccountCodec.writeAccount(out, user);
+                    written.put(user.userID, new long[] { offset, out.size() - offset });
+                }
+                long directoryOffset = out.size();
+                for (UserAccount user: accounts) {
+                    long[] location = written.get(user.userID);
+                    out.writeLong(location[0]);
+                    out.writeInt((int)location[1]);
+                    AccountCodec.writeAccount(out, stub(user));
+                }
+                out.writeLong(directoryOffset);
+                out.flush();
+                // Written straight to the file, so it isn't part of the checksum.
+                new DataOutputStream(fos).writeLong(crc.getValue());
+            }
+            close();
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            tmp.delete();
+            throw ioe;
+        } finally {
+            if (channel == null && file.exists()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+        }
+        locations.clear();
+        locations.putAll(written);
+        List<UserAccount> stubs = new ArrayList<>(accounts.size());
+        accounts.forEach(user -> stubs.add(stub(user)));
+        index = new AccountIndex(stubs);
+    }
+
+    /**
+     * Remove the cold file. Used when the hot store has all of the accounts.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+        locations.clear();
+        index = new AccountIndex();
+    }
+
+    private static UserAccount stub(UserAccount user) {
+        UserAccount stub = new UserAccount();
+        stub.userID = user.userID;
+        stub.userName = user.userName;
+        stub.fullName = user.fullName;
+        stub.emailAddress = user.emailAddress;
+        stub.enabled = user.enabled;
+        return stub;
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.mhsoftware.authdemo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.password4j.Argon2Function;
+
+/**
+ * Compares password checks with Password4J and with the Argon2 class.
+ *
+ * Both check the same hash, from the same number of threads. For each one
+ * it reports latency percentiles, the bytes allocated per check, and how many
+ * collections happened and how long they took. The allocation numbers come
+ * from com.sun.management.ThreadMXBean, so they're only available on
+ * HotSpot (and look like -1 elsewhere).
+ *
+ * Each implementation gets a warm up round first, which isn't counted.
+ *
+ * @author gsexton
+ */
+public class HashBenchmark {
+
+    private static final String PASSWORD = "BenchmarkPassword";
+
+    private final int checks;
+    private final int threads;
+    private final int memory;
+    private final int iterations;
+    private final int parallelism;
+
+    private interface Checker {
+        boolean check(String password, String hash);
+    }
+
+    /**
+     * @param options The command options. See App.usage() for the list.
+     */
+    public HashBenchmark(Map<String, String> options) {
+        checks = Integer.parseInt(options.getOrDefault("checks", "2000"));
+        threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        memory = Integer.parseInt(options.getOrDefault("memory", String.valueOf(Argon2.DEFAULT_MEMORY)));
+        iterations = Integer.parseInt(options.getOrDefault("iterations", String.valueOf(Argon2.DEFAULT_ITERATIONS)));
+        parallelism = Integer.parseInt(options.getOrDefault("parallelism", String.valueOf(Argon2.DEFAULT_PARALLELISM)));
+    }
+
+    private static long allocatedBytes(Thread thread) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(thread.getId());
+        }
+        return -1;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+    }
+
+    /**
+     * Run count checks spread across the threads, and print one line of results.
+     */
+    private void measure(String name, Checker checker, String hash, int count, boolean report) throws InterruptedException {
+        long[][] samples = new long[threads][];
+        long[] allocated = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int threadIndex = t;
+            samples[t] = new long[count / threads + (t < count % threads ? 1 : 0)];
+            Thread worker = new Thread(() -> {
+                long[] mine = samples[threadIndex];
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long before = allocatedBytes(Thread.currentThread());
+                for (int i = 0; i < mine.length; i++) {
+                    long opStart = System.nanoTime();
+                    if (!checker.check(PASSWORD, hash)) {
+                        throw new IllegalStateException(name + " failed to verify the password.");
+                    }
+                    mine[i] = System.nanoTime() - opStart;
+                }
+                allocated[threadIndex] = before < 0 ? -1 : allocatedBytes(Thread.currentThread()) - before;
+            }, "authdemo-hash-benchmark-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long[] gcBefore = gcTotals();
+        long runStart = System.nanoTime();
+        start.countDown();
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        long runNanos = System.nanoTime() - runStart;
+        long[] gcAfter = gcTotals();
+        if (!report) {
+            return;
+        }
+
+        long[] all = new long[count];
+        int n = 0;
+        long totalAllocated = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(samples[t], 0, all, n, samples[t].length);
+            n += samples[t].length;
+            totalAllocated = allocated[t] < 0 || totalAllocated < 0 ? -1 : totalAllocated + allocated[t];
+        }
+        Arrays.sort(all);
+        System.out.println(String.format(Locale.US, "%-10s %10.1f %10s %10s %10s %14d %8d %8d", name, count * 1e9 / runNanos,
+                                         millis(percentile(all, 0.50)), millis(percentile(all, 0.99)), millis(percentile(all, 1.0)),
+                                         totalAllocated < 0 ? -1 : totalAllocated / count, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]));
+    }
+
+    public void run() throws InterruptedException {
+        Argon2Function password4j = Argon2Function.getInstance(memory, iterations, parallelism, Argon2.DEFAULT_HASH_LENGTH,
+                                                                com.password4j.types.Argon2.ID, 19);
+        byte[] salt = new byte[Argon2.DEFAULT_SALT_LENGTH];
+        Arrays.fill(salt, (byte)'s');
+        String hash = Argon2.hash(PASSWORD, salt, memory, iterations, parallelism, Argon2.DEFAULT_HASH_LENGTH);
+        Checker[] checkers = { (password, h) -> password4j.check(password, h), Argon2::verify };
+        String[] names = { "password4j", "Argon2" };
+
+        System.out.println("Hash benchmark: " + checks + " checks, " + threads + " threads, m=" + memory + ",t=" + iterations + ",p=" + parallelism
+                           + ", " + Argon2.getCompression() + " compression");
+        System.out.println(String.format(Locale.US, "%-10s %10s %10s %10s %10s %14s %8s %8s", "engine", "checks/s", "p50 ms", "p99 ms",
+                                         "max ms", "bytes/check", "GCs", "GC ms"));
+        for (int i = 0; i < checkers.length; i++) {
+            measure(names[i], checkers[i], hash, Math.max(threads, checks / 10), false);
+            measure(names[i], checkers[i], hash, checks, true);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.mhsoftware.authdemo;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A load generator to reproduce production-like login traffic against
+ * AuthenticationProviderImpl and AccountStore.
+ *
+ * It seeds a scratch store with synthetic accounts and then runs a mix of
+ * good logins, bad logins, password changes, admin operations and read-only
+ * lookups from several threads. When it's done, it reports throughput, latency
+ * percentiles, and error rates for each operation, along with how much the
+ * store file grew and how many times it was written.
+ *
+ * Seeding uses a pre-hashed path. One password is hashed, and the hash is
+ * shared by every synthetic account. They're all added with a single store
+ * write using AccountStore.addAccounts().
+ *
+ * Each worker thread has its own Random seeded from --seed, so the sequence
+ * of operations a thread performs is the same from run to run. The
+ * interleaving between threads is of course up to the scheduler.
+ *
+ * The workers change copies of the accounts, and store them with
+ * updateAccount(), rather than changing the store's own UserAccount objects
+ * while another thread may be writing them to the file. Two operations on
+ * the same account at the same time can overwrite each other's changes
+ * (a bad login count, say), which doesn't matter for a load test.
+ *
+ * The store file is deleted before the run. It defaults to a separate
+ * file so the real account-info.yaml isn't touched.
+ *
+ * @author gsexton
+ */
+public class LoadGenerator {
+
+    public static final String LOAD_STORE_FILE = "loadtest-account-info.yaml";
+
+    /** The password shared by all of the synthetic accounts. */
+    static final String PASSWORD = "LoadTestPassword";
+
+    public enum Operation {
+        GOOD_LOGIN,
+        BAD_LOGIN,
+        CHANGE_PASSWORD,
+        ADMIN,
+        LOOKUP
+    }
+
+    /**
+     * The results for one operation type, from all of the threads. The latencies are in nanoseconds.
+     */
+    public static class Result {
+        public final int count;
+        public final int errors;
+        public final long p50;
+        public final long p99;
+        public final long p999;
+        public final long max;
+
+        Result(Samples samples) {
+            Arrays.sort(samples.nanos, 0, samples.count);
+            count = samples.count;
+            errors = samples.errors;
+            p50 = percentile(samples.nanos, samples.count, 0.50);
+            p99 = percentile(samples.nanos, samples.count, 0.99);
+            p999 = percentile(samples.nanos, samples.count, 0.999);
+            max = percentile(samples.nanos, samples.count, 1.0);
+        }
+
+        /** @return double The fraction of the operations that didn't have the expected outcome. */
+        public double getErrorRate() {
+            return count == 0 ? 0 : (double)errors / count;
+        }
+    }
+
+    /**
+     * What measure() found.
+     */
+    public static class Report {
+        public final Map<Operation, Result> results;
+        public final long elapsedNanos;
+        public final long startSize;
+        public final long endSize;
+        public final long storeWrites;
+        public final long auditEventsDropped;
+
+        Report(Map<Operation, Result> results, long elapsedNanos, long startSize, long endSize, long storeWrites, long auditEventsDropped) {
+            this.results = results;
+            this.elapsedNanos = elapsedNanos;
+            this.startSize = startSize;
+            this.endSize = endSize;
+            this.storeWrites = storeWrites;
+            this.auditEventsDropped = auditEventsDropped;
+        }
+
+        /** @return int The number of operations of all types. */
+        public int getCount() {
+            return results.values().stream().mapToInt(result -> result.count).sum();
+        }
+
+        /** @return double The fraction of all of the operations that didn't have the expected outcome. */
+        public double getErrorRate() {
+            int count = getCount();
+            return count == 0 ? 0 : (double)results.values().stream().mapToInt(result -> result.errors).sum() / count;
+        }
+    }
+
+    /**
+     * The latencies and error count for one operation type on one thread.
+     */
+    private static class Samples {
+        long[] nanos = new long[1024];
+        int count;
+        int errors;
+
+        void add(long elapsed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+        }
+    }
+
+    private final int accounts;
+    private final int threads;
+    private final int operations;
+    private final long seed;
+    private final File storeFile;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private int mixTotal;
+
+    private final List<String> userNames;
+    private final AuthenticationProvider ap = new AuthenticationProviderImpl(PasswordPolicyValidator.getDefaultPolicyValidator());
+
+    /**
+     * @param options The command options. See App.usage() for the list.
+     */
+    public LoadGenerator(Map<String, String> options) {
+        accounts = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        operations = Integer.parseInt(options.getOrDefault("operations", "10000"));
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        storeFile = new File(options.getOrDefault("storeFile", LOAD_STORE_FILE));
+        parseMix(options.getOrDefault("mix", "good:70,bad:20,change:5,admin:5"));
+        userNames = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            userNames.add("load-user-" + i);
+        }
+    }
+
+    private void parseMix(String value) {
+        for (String part: value.split(",")) {
+            String[] halves = part.split(":");
+            Operation op;
+            switch (halves[0].trim()) {
+            case "good":
+                op = Operation.GOOD_LOGIN;
+                break;
+            case "bad":
+                op = Operation.BAD_LOGIN;
+                break;
+            case "change":
+                op = Operation.CHANGE_PASSWORD;
+                break;
+            case "admin":
+                op = Operation.ADMIN;
+                break;
+            case "lookup":
+                op = Operation.LOOKUP;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation in mix: " + halves[0]);
+            }
+            int weight = Integer.parseInt(halves[1].trim());
+            mix.put(op, weight);
+            mixTotal += weight;
+        }
+        if (mixTotal <= 0) {
+            throw new IllegalArgumentException("The operation mix must have a positive total weight.");
+        }
+    }
+
+    /**
+     * Delete the store file, fill it with synthetic accounts, and make it the 
+     * file of AccountStore.getInstance(). 
+     */
+    public void seed() throws PasswordValidationException {
+        if (storeFile.exists() && !storeFile.delete()) {
+            throw new RuntimeException("Unable to delete " + storeFile);
+        }
+        AccountStore store = AccountStore.getInstance();
+        store.setStoreFile(storeFile);
+
+        UserAccount template = new UserAccount();
+        ap.changePassword(template, PASSWORD);
+
+        List<UserAccount> users = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            UserAccount user = new UserAccount();
+            user.userName = userNames.get(i);
+            user.fullName = "Load User " + i;
+            user.emailAddress = "load-user-" + i + "@example.com";
+            user.enabled = true;
+            user.password = template.password;
+            user.pwdChangeDate = template.pwdChangeDate;
+            users.add(user);
+        }
+        store.addAccounts(users);
+    }
+
+    /** @return List&lt;String&gt; The userNames of the seeded accounts. */
+    public List<String> getUserNames() {
+        return userNames;
+    }
+
+    private Operation pick(Random random) {
+        int n = random.nextInt(mixTotal);
+        for (Map.Entry<Operation, Integer> me: mix.entrySet()) {
+            n -= me.getValue();
+            if (n < 0) {
+                return me.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Perform one operation.
+     *
+     * @return boolean True if the operation had the expected outcome.
+     */
+    private boolean perform(Operation op, String userName, Random random) {
+        AccountStore store = AccountStore.getInstance();
+        UserAccount stored = store.getAccount(userName);
+        if (stored == null) {
+            return false;
+        }
+        if (op == Operation.LOOKUP) {
+            switch (random.nextInt(3)) {
+            case 0:
+                return true;
+            case 1:
+                return store.getAccountsByEmail(stored.emailAddress).contains(stored);
+            default:
+                return !store.findAccountsByPrefix(userName, 10).isEmpty();
+            }
+        }
+        UserAccount account = new UserAccount(stored);
+        switch (op) {
+        case GOOD_LOGIN:
+        case BAD_LOGIN:
+            boolean verified;
+            try {
+                verified = ap.verifyPassword(account, op == Operation.GOOD_LOGIN ? PASSWORD : PASSWORD + "-wrong");
+            } catch (AuthenticationException ae) {
+                verified = false;
+            }
+            store.updateAccount(account);
+            return verified == (op == Operation.GOOD_LOGIN);
+        case CHANGE_PASSWORD:
+            try {
+                // Keep the same password so that later logins still know it.
+                ap.changePassword(account, PASSWORD);
+            } catch (PasswordValidationException pve) {
+                return false;
+            }
+            store.updateAccount(account);
+            return true;
+        case ADMIN:
+            switch (random.nextInt(3)) {
+            case 0:
+                return !store.getAccountsByEmail(account.emailAddress).isEmpty();
+            case 1:
+                return !store.findAccountsByPrefix(userName.substring(0, userName.length() - 1), 10).isEmpty();
+            default:
+                account.enabled = true;
+                account.badLoginCount = 0;
+                store.updateAccount(account);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int)Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1000000.0);
+    }
+
+    /**
+     * Seed the store, run the workload, and print the report.
+     */
+    public void run() throws Exception {
+        long seedStart = System.nanoTime();
+        seed();
+        long seedNanos = System.nanoTime() - seedStart;
+        Report report = measure();
+
+        System.out.println("Load test: " + accounts + " accounts, " + threads + " threads, " + operations + " operations, seed " + seed);
+        System.out.println("Seeded in " + millis(seedNanos) + " ms");
+        System.out.println(String.format(Locale.US, "Elapsed: %s ms  Throughput: %.1f ops/sec", millis(report.elapsedNanos), operations * 1e9 / report.elapsedNanos));
+        System.out.println(String.format(Locale.US, "%-16s %8s %8s %10s %10s %10s %10s", "operation", "count", "error %", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<Operation, Result> me: report.results.entrySet()) {
+            Result result = me.getValue();
+            System.out.println(String.format(Locale.US, "%-16s %8d %8.2f %10s %10s %10s %10s", me.getKey(), result.count, result.getErrorRate() * 100,
+                                             millis(result.p50), millis(result.p99), millis(result.p999), millis(result.max)));
+        }
+        System.out.println(String.format(Locale.US, "All operations: %d, error rate %.2f%%", report.getCount(), report.getErrorRate() * 100));
+        System.out.println("Store file: " + storeFile + " " + report.startSize + " -> " + report.endSize + " bytes ("
+                           + (report.endSize - report.startSize) + "), " + report.storeWrites + " writes");
+        System.out.println("Audit events dropped: " + report.auditEventsDropped);
+    }
+
+    /**
+     * Run the workload against AccountStore.getInstance(), which has to hold the 
+     * accounts seed() makes (from this generator, or another one with the same 
+     * number of accounts). 
+     */
+    public Report measure() throws InterruptedException {
+        AccountStore store = AccountStore.getInstance();
+        long startSize = storeFile.length(),
+            startWrites = store.getWriteCount(),
+            startDropped = AuditLog.getInstance().getDroppedCount();
+
+        @SuppressWarnings("unchecked")
+        Map<Operation, Samples>[] results = new Map[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int threadIndex = t;
+            final int count = operations / threads + (t < operations % threads ? 1 : 0);
+            results[t] = new EnumMap<>(Operation.class);
+            for (Operation op: Operation.values()) {
+                results[t].put(op, new Samples());
+            }
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed + threadIndex);
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    Operation op = pick(random);
+                    String userName = userNames.get(random.nextInt(userNames.size()));
+                    Samples samples = results[threadIndex].get(op);
+                    long opStart = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = perform(op, userName, random);
+                    } catch (RuntimeException re) {
+                        ok = false;
+                    }
+                    samples.add(System.nanoTime() - opStart);
+                    if (!ok) {
+                        samples.errors++;
+                    }
+                }
+            }, "authdemo-load-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long runStart = System.nanoTime();
+        start.countDown();
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        long runNanos = System.nanoTime() - runStart;
+
+        Map<Operation, Result> merged = new EnumMap<>(Operation.class);
+        for (Operation op: mix.keySet()) {
+            Samples all = new Samples();
+            for (Map<Operation, Samples> r: results) {
+                Samples samples = r.get(op);
+                for (int i = 0; i < samples.count; i++) {
+                    all.add(samples.nanos[i]);
+                }
+                all.errors += samples.errors;
+            }
+            merged.put(op, new Result(all));
+        }
+        return new Report(merged, runNanos, startSize, storeFile.length(), store.getWriteCount() - startWrites,
+                          AuditLog.getInstance().getDroppedCount() - startDropped);
+    }
+}
@@ -0,0 +1,144 @@
+package com.mhsoftware.authdemo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the serial login flow (what App.login() does: lookup,
+ * verifyPassword(), updateAccount() on one thread) with LoginPipeline.
+ *
+ * Both run the same number of good logins against a store seeded by
+ * LoadGenerator. The serial flow runs on --threads platform threads. The
+ * pipeline gets up to --concurrency logins in flight at once. For each it
+ * reports throughput, latency percentiles, errors, and how many times the
+ * store file was written.
+ *
+ * @author gsexton
+ */
+public class LoginBenchmark {
+
+    private final Map<String, String> options;
+    private final int logins;
+    private final int threads;
+    private final int concurrency;
+
+    /**
+     * @param options The command options. See App.usage() for the list.
+     */
+    public LoginBenchmark(Map<String, String> options) {
+        this.options = options;
+        logins = Integer.parseInt(options.getOrDefault("logins", "5000"));
+        threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1000"));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2f", nanos / 1000000.0);
+    }
+
+    private void report(String name, long[] samples, long runNanos, int errors, long writes) {
+        Arrays.sort(samples);
+        System.out.println(String.format(Locale.US, "%-10s %10.1f %10s %10s %10s %8d %8d", name, samples.length * 1e9 / runNanos,
+                                         millis(percentile(samples, 0.50)), millis(percentile(samples, 0.99)),
+                                         millis(percentile(samples, 1.0)), errors, writes));
+    }
+
+    private void runSerial(List<String> userNames, AuthenticationProvider ap, boolean report) throws InterruptedException {
+        AccountStore store = AccountStore.getInstance();
+        long[] samples = new long[logins];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                for (int i = first; i < logins; i += threads) {
+                    long opStart = System.nanoTime();
+                    UserAccount account = store.getAccount(userNames.get(i % userNames.size()));
+                    try {
+                        ap.verifyPassword(account, LoadGenerator.PASSWORD);
+                    } catch (AuthenticationException ae) {
+                        errors.incrementAndGet();
+                    }
+                    store.updateAccount(account);
+                    samples[i] = System.nanoTime() - opStart;
+                }
+            }, "authdemo-login-benchmark-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long writes = store.getWriteCount();
+        long runStart = System.nanoTime();
+        start.countDown();
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        if (report) {
+            report("serial", samples, System.nanoTime() - runStart, errors.get(), store.getWriteCount() - writes);
+        }
+    }
+
+    private void runPipeline(List<String> userNames, AuthenticationProviderImpl ap, boolean report) throws InterruptedException {
+        AccountStore store = AccountStore.getInstance();
+        long[] samples = new long[logins];
+        AtomicInteger errors = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long writes = store.getWriteCount();
+        long runStart;
+        try (LoginPipeline pipeline = new LoginPipeline(store, ap)) {
+            runStart = System.nanoTime();
+            for (int i = 0; i < logins; i++) {
+                final int index = i;
+                inFlight.acquire();
+                long opStart = System.nanoTime();
+                pipeline.login(userNames.get(i % userNames.size()), LoadGenerator.PASSWORD).whenComplete((ok, t) -> {
+                    samples[index] = System.nanoTime() - opStart;
+                    if (t != null || !ok) {
+                        errors.incrementAndGet();
+                    }
+                    inFlight.release();
+                });
+            }
+            inFlight.acquire(concurrency);
+            if (report) {
+                System.out.println("(" + (pipeline.isUsingVirtualThreads() ? "virtual" : "platform") + " request threads, "
+                                   + pipeline.getBatchedAccountCount() / Math.max(1, pipeline.getBatchCount()) + " accounts per write)");
+            }
+        }
+        if (report) {
+            report("pipeline", samples, System.nanoTime() - runStart, errors.get(), store.getWriteCount() - writes);
+        }
+    }
+
+    public void run() throws Exception {
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.seed();
+        List<String> userNames = generator.getUserNames();
+        AuthenticationProviderImpl ap = new AuthenticationProviderImpl(PasswordPolicyValidator.getDefaultPolicyValidator());
+
+        System.out.println("Login benchmark: " + userNames.size() + " accounts, " + logins + " logins, " + threads
+                           + " serial threads, " + concurrency + " pipeline logins in flight, " + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println(String.format(Locale.US, "%-10s %10s %10s %10s %10s %8s %8s", "flow", "logins/s", "p50 ms", "p99 ms",
+                                         "max ms", "errors", "writes"));
+        // A warm up round of each first, which isn't reported.
+        runSerial(userNames, ap, false);
+        runSerial(userNames, ap, true);
+        runPipeline(userNames, ap, false);
+        runPipeline(userNames, ap, true);
+    }
+}
@@ -0,0 +1,315 @@
+package com.mhsoftware.authdemo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logins split into stages, so the CPU work and the disk writes don't hold
+ * each other up.
+ *
+ * App.login() does the lookup, the password hash, postLogin() and the store
+ * write one after another on one thread. Here:
+ *
+ * Each login request runs on its own thread. On JDK 21 and later those are
+ * virtual threads, so there can be tens of thousands of logins waiting
+ * without tens of thousands of platform threads. The project targets Java 8,
+ * so the virtual thread executor is looked up by reflection. On older JDKs a
+ * fixed pool of platform threads (authdemo.pipeline.requestThreads, 256 by
+ * default) runs the requests instead.
+ *
+ * The password check runs on a pool of platform threads, one per core. The
+ * request thread waits for it, which costs nothing on a virtual thread.
+ *
+ * The changed account goes to the writer, which takes everything that's
+ * queued up (up to maxBatch accounts) and writes it with one
+ * AccountStore.updateExistingAccounts(), so one store write covers many
+ * logins. A login isn't complete until its write is. An account deleted while
+ * its login was in flight is left out of the batch, and that login fails,
+ * without holding up the others. Only one batch for a pipeline is written at
+ * a time.
+ *
+ * A pipeline normally has its own threads. TenantManager instead gives every
+ * tenant's pipeline the same request, hashing and writer executors, with a
+ * limit on how many of the hashing threads one tenant can use at a time. A
+ * writer executor that's shared writes one batch for a pipeline and then goes
+ * to the back of the line, so a busy tenant doesn't hold up the others.
+ *
+ * @author gsexton
+ */
+public class LoginPipeline implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH = 1024;
+
+    private static final int DEFAULT_REQUEST_THREADS = Integer.getInteger("authdemo.pipeline.requestThreads", 256);
+
+    /**
+     * An account waiting to be written, and the future to complete when it is. It completes
+     * with false if the account was deleted in the meantime.
+     */
+    private static class PendingWrite {
+        final UserAccount account;
+        final CompletableFuture<Boolean> written = new CompletableFuture<>();
+
+        PendingWrite(UserAccount account) {
+            this.account = account;
+        }
+    }
+
+    private final AccountStore store;
+    private final AuthenticationProviderImpl ap;
+    private final int maxBatch;
+    private final ExecutorService requests;
+    private final boolean virtualThreads;
+    private final ExecutorService hashing;
+    private final Semaphore hashPermits;
+    private final ExecutorService writer;
+    private final boolean ownExecutors;
+    private final BlockingQueue<PendingWrite> writes = new LinkedBlockingQueue<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private int inFlight;
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedAccounts = new AtomicLong();
+    private final AtomicInteger hashesRunning = new AtomicInteger();
+    private final AtomicInteger peakHashes = new AtomicInteger();
+
+    public LoginPipeline(AccountStore store, AuthenticationProviderImpl ap) {
+        this(store, ap, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param hashThreads The number of threads checking passwords.
+     * @param maxBatch The most accounts written by one store write.
+     */
+    public LoginPipeline(AccountStore store, AuthenticationProviderImpl ap, int hashThreads, int maxBatch) {
+        this.store = store;
+        this.ap = ap;
+        this.maxBatch = maxBatch;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        requests = virtualThreads ? virtual : Executors.newFixedThreadPool(DEFAULT_REQUEST_THREADS, namedThreads("authdemo-login-"));
+        hashing = Executors.newFixedThreadPool(hashThreads, namedThreads("authdemo-hash-"));
+        hashPermits = null;
+        writer = Executors.newSingleThreadExecutor(namedThreads("authdemo-login-writer-"));
+        ownExecutors = true;
+    }
+
+    /**
+     * A pipeline that uses executors it shares with other pipelines. close() waits for this
+     * pipeline's logins, but doesn't shut the executors down.
+     *
+     * @param maxHashThreads The most password checks this pipeline can have running at once.
+     */
+    LoginPipeline(AccountStore store, AuthenticationProviderImpl ap, ExecutorService requests, boolean virtualThreads,
+                  ExecutorService hashing, int maxHashThreads, ExecutorService writer, int maxBatch) {
+        this.store = store;
+        this.ap = ap;
+        this.maxBatch = maxBatch;
+        this.requests = requests;
+        this.virtualThreads = virtualThreads;
+        this.hashing = hashing;
+        this.hashPermits = new Semaphore(maxHashThreads);
+        this.writer = writer;
+        this.ownExecutors = false;
+    }
+
+    /**
+     * @return ExecutorService Executors.newVirtualThreadPerTaskExecutor(), or null before JDK 21.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** @return boolean True if requests run on virtual threads. */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** @return long The number of logins started. */
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    /** @return int The number of logins that haven't finished yet. */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /** @return long The number of store writes the writer has done. */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** @return long The number of accounts the writer has written. */
+    public long getBatchedAccountCount() {
+        return batchedAccounts.get();
+    }
+
+    /** @return int The most password checks this pipeline has had running at once. */
+    public int getPeakHashCount() {
+        return peakHashes.get();
+    }
+
+    /**
+     * Start a login.
+     *
+     * @return CompletableFuture&lt;Boolean&gt; Completes with true if the login succeeded, and false if
+     *         the account doesn't exist (or is deleted before the login is written), is disabled,
+     *         or the password is wrong. It completes after the account has been written.
+     */
+    public CompletableFuture<Boolean> login(String userName, String password) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        logins.incrementAndGet();
+        synchronized (this) {
+            inFlight++;
+        }
+        requests.execute(() -> {
+            try {
+                result.complete(authenticate(userName, password));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    if (--inFlight == 0) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The request stage. This blocks while the password is checked and the
+     * account is written.
+     */
+    private boolean authenticate(String userName, String password) throws InterruptedException, ExecutionException {
+        UserAccount account = store.getAccount(userName);
+        if (account == null) {
+            return false;
+        }
+        // The account is shared with the other logins for it, and with the writer and copyStore(),
+        // so the checks and changes to it are made holding the store's lock, like the store's own.
+        try {
+            synchronized (store) {
+                ap.verifyLoginAllowed(account);
+            }
+        } catch (AuthenticationException ae) {
+            return false;
+        }
+        boolean verified;
+        if (hashPermits == null) {
+            verified = hashing.submit(() -> checkPassword(account, password)).get();
+        } else {
+            hashPermits.acquire();
+            try {
+                verified = hashing.submit(() -> checkPassword(account, password)).get();
+            } finally {
+                hashPermits.release();
+            }
+        }
+        try {
+            synchronized (store) {
+                ap.postLogin(account, verified);
+            }
+        } catch (AuthenticationException ae) {
+            // Disabled by another login in the meantime.
+            return false;
+        }
+        PendingWrite write = new PendingWrite(account);
+        writes.add(write);
+        if (writeScheduled.compareAndSet(false, true)) {
+            writer.execute(this::writeBatch);
+        }
+        return write.written.get() && verified;
+    }
+
+    /**
+     * The hashing stage.
+     */
+    private boolean checkPassword(UserAccount account, String password) {
+        peakHashes.accumulateAndGet(hashesRunning.incrementAndGet(), Math::max);
+        try {
+            return ap.checkPassword(account, password);
+        } finally {
+            hashesRunning.decrementAndGet();
+        }
+    }
+
+    /**
+     * The writer stage. This writes whatever is queued (up to maxBatch accounts), and
+     * then schedules itself again if more has been queued in the meantime. The accounts
+     * queued while one batch is being written make up the next one.
+     */
+    private void writeBatch() {
+        List<PendingWrite> batch = new ArrayList<>(Math.min(maxBatch, writes.size()));
+        writes.drainTo(batch, maxBatch);
+        if (!batch.isEmpty()) {
+            // The same account can be in the batch more than once, but only needs to be written once.
+            Set<UserAccount> accounts = Collections.newSetFromMap(new IdentityHashMap<>());
+            batch.forEach(write -> accounts.add(write.account));
+            try {
+                Set<UserAccount> deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+                deleted.addAll(store.updateExistingAccounts(accounts));
+                if (deleted.size() < accounts.size()) {
+                    batches.incrementAndGet();
+                    batchedAccounts.addAndGet(accounts.size() - deleted.size());
+                }
+                batch.forEach(write -> write.written.complete(!deleted.contains(write.account)));
+            } catch (RuntimeException re) {
+                batch.forEach(write -> write.written.completeExceptionally(re));
+            }
+        }
+        writeScheduled.set(false);
+        // Anything queued after the drainTo() above, whose login saw writeScheduled still set.
+        if (!writes.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            writer.execute(this::writeBatch);
+        }
+    }
+
+    /**
+     * Finish the logins that have been started, and stop.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            while (inFlight > 0) {
+                wait();
+            }
+        }
+        if (ownExecutors) {
+            requests.shutdown();
+            requests.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            hashing.shutdown();
+            writer.shutdown();
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -3,8 +3,10 @@ package com.mhsoftware.authdemo;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** 
  * A class to centralize password policy validation prior to a 
@@ -13,89 +15,184 @@ import java.util.Map;
  * The design permits multiple policies if that's something that's 
  * really needed. 
  *  
- * The only implemented policy is the minLength for the password. 
+ * The only implemented password policy is the minLength for the password. 
+ * The maxBadLogins policy is also accepted, but it's enforced by 
+ * AuthenticationProvider.postLogin() rather than here. 
+ *  
+ * Validators are immutable. Each one holds a copy of its policy, which is
+ * checked when the validator is created, so a bad policy is rejected when
+ * it's configured rather than at the first password change.
+ *  
+ * The registry of named validators is an immutable snapshot held in an
+ * AtomicReference. Lookups just read the current snapshot, so they never
+ * lock. Changes build a new snapshot with the next version number and swap
+ * it in. replacePolicies() swaps in a whole set of policies at once, which is
+ * what PolicyFileWatcher uses when the policy file changes.
+ *  
+ * Anything using a validator sees the whole of one version of the policy.
+ * To pick up changes, call current() (AuthenticationProvider does this for
+ * each operation) rather than keeping a validator around.
  */
 public class PasswordPolicyValidator {
 
-    private Map<String, Object> policy;
+    private final String policyName;
+    private final long version;
+    private final Map<String, Object> policy;
 
     /*
         Class-wide statics
     */
 
     /**
-     * Map of policy names and instantiated PasswordPolicyValidators: 
+     * An immutable snapshot of the configured policies.
      *  
-     * k = PolicyName 
+     * k = PolicyName (null for the default policy)
      * v = PasswordPolicyValidator 
      */
-    private static Map<String, PasswordPolicyValidator> instances = new HashMap<>();
-    private static Map<String, Map<String, Object>> passwordPolicies = new HashMap<>();
+    private static final class Registry {
+        final long version;
+        final Map<String, PasswordPolicyValidator> validators;
+
+        Registry(long version, Map<String, PasswordPolicyValidator> validators) {
+            this.version = version;
+            this.validators = Collections.unmodifiableMap(validators);
+        }
+    }
+
+    private static final AtomicReference<Registry> registry = new AtomicReference<>(new Registry(0, new HashMap<>()));
 
     public static PasswordPolicyValidator getDefaultPolicyValidator() {
         return getInstance(null);
     }
 
     public static void setDefaultPolicy(Map<String, Object> policy) {
-        synchronized (passwordPolicies) {
-            passwordPolicies.put(null, policy);
-        }
+        addPolicy(null, policy);
     }
 
     public static PasswordPolicyValidator getInstance(String policyName) {
-        PasswordPolicyValidator result = null;
-        synchronized (passwordPolicies) {
-            if (!passwordPolicies.containsKey(policyName)) {
-                throw new RuntimeException("Attempt to create PasswordPolicyValidator when policy name " + policyName + " does not have a configured policy!");
-            }
-            result = instances.get(policyName);
-            if (result == null) {
-                result = new PasswordPolicyValidator(passwordPolicies.get(policyName));
-                instances.put(policyName, result);
-            }
+        PasswordPolicyValidator result = registry.get().validators.get(policyName);
+        if (result == null) {
+            throw new RuntimeException("Attempt to create PasswordPolicyValidator when policy name " + policyName + " does not have a configured policy!");
         }
         return result;
     }
 
     /**
-     * Add a new, named password policy. If it's an update, any created 
-     * PasswordPolicyValidator instances are removed. 
+     * @return long The version of the policies. It goes up by one for each change.
+     */
+    public static long getVersion() {
+        return registry.get().version;
+    }
+
+    /**
+     * @return Map&lt;String,PasswordPolicyValidator&gt; All of the current validators, by policy name.
+     *         The default policy's name is null.
+     */
+    public static Map<String, PasswordPolicyValidator> getInstances() {
+        return registry.get().validators;
+    }
+
+    /**
+     * Add a new, named password policy, or replace an existing one.
      *  
-     * Caching instances locally may result in use of a validator with an 
-     * outdated policy. 
-     * 
      * @param policyName 
      * @param configuration Policy key/value pairs.
+     *  
+     * @throws IllegalArgumentException If the policy has an unknown key or a bad value.
      */
     public static void addPolicy(String policyName, Map<String, Object> configuration) {
-        synchronized (passwordPolicies) {
-            if (instances.containsKey(policyName)) {
-                instances.remove(policyName);
+        Registry current, next;
+        do {
+            current = registry.get();
+            Map<String, PasswordPolicyValidator> validators = new HashMap<>(current.validators);
+            validators.put(policyName, new PasswordPolicyValidator(policyName, current.version + 1, configuration));
+            next = new Registry(current.version + 1, validators);
+        } while (!registry.compareAndSet(current, next));
+    }
+
+    /**
+     * Replace all of the policies at once. Either all of them are installed, or,
+     * if any of them is invalid, none are.
+     *  
+     * @param policies Policy names and their key/value pairs. The default policy's name is null.
+     *  
+     * @return long The new version.
+     *  
+     * @throws IllegalArgumentException If any policy has an unknown key or a bad value.
+     */
+    public static long replacePolicies(Map<String, Map<String, Object>> policies) {
+        Registry current, next;
+        do {
+            current = registry.get();
+            Map<String, PasswordPolicyValidator> validators = new HashMap<>();
+            for (Map.Entry<String, Map<String, Object>> me: policies.entrySet()) {
+                validators.put(me.getKey(), new PasswordPolicyValidator(me.getKey(), current.version + 1, me.getValue()));
             }
-            passwordPolicies.put(policyName, configuration);
+            next = new Registry(current.version + 1, validators);
+        } while (!registry.compareAndSet(current, next));
+        return next.version;
+    }
+
+
+    private PasswordPolicyValidator(String policyName, long version, Map<String, Object> policy) {
+        String displayName = policyName == null ? "default" : policyName;
+        if (policy == null) {
+            throw new IllegalArgumentException("The password policy " + displayName + " has no settings.");
         }
+        for (Map.Entry<String, Object> me: policy.entrySet()) {
+            switch (me.getKey()) {
+            case "minLength":
+            case "maxBadLogins":
+                if (!(me.getValue() instanceof Integer) || ((Integer)me.getValue()).intValue() < 0) {
+                    throw new IllegalArgumentException("The password policy " + displayName + " has an invalid " + me.getKey() + " of " + me.getValue() + ".");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(this.getClass().getName() + " validation for " + me.getKey() + " is not implemented!");
+            }
+        }
+        this.policyName = policyName;
+        this.version = version;
+        this.policy = Collections.unmodifiableMap(new LinkedHashMap<>(policy));
     }
 
+    /**
+     * @return String The policy name, or null for the default policy.
+     */
+    public String getPolicyName() {
+        return policyName;
+    }
 
-    private PasswordPolicyValidator(Map<String, Object> policy) {
-        this.policy = policy;
+    /**
+     * @return long The registry version this validator was created in.
+     */
+    public long getPolicyVersion() {
+        return version;
+    }
+
+    /**
+     * @return PasswordPolicyValidator The current validator for this policy name. If
+     *         the policy has since been removed, this one.
+     */
+    public PasswordPolicyValidator current() {
+        PasswordPolicyValidator result = registry.get().validators.get(policyName);
+        return result == null ? this : result;
     }
 
     /**
-     * Get the policy map. It's returned as an unmodifiable map 
-     * to prevent malicious use. 
-     * 
+     * Get the policy map. It's unmodifiable to prevent malicious use.
+     *  
      * @return Map&lt;String,Object&gt; 
      */
     public Map<String, Object> getPolicy() {
-        return Collections.unmodifiableMap(policy);
+        return policy;
     }
 
     /**
      * Ensure that a password meets required policy elements. 
      *  
      * @param password 
-     * 
+     *  
      * @return List&lt;String&gt; 
      *  
      * A list of failed validations for that proposed password. 
@@ -113,6 +210,9 @@ public class PasswordPolicyValidator {
             case "minLength":
                 validateMinLength(password, (Integer)me.getValue(), messages);
                 break;
+            case "maxBadLogins":
+                // Not a password rule. See AuthenticationProvider.postLogin().
+                break;
             default:
                 throw new RuntimeException(this.getClass().getName() + " validation for " + me.getKey() + " is not implemented!");
             }
@@ -136,5 +236,9 @@ public class PasswordPolicyValidator {
             messages.add("The password length of " + pwLength + " is less than the required length of " + minLength.toString() + ".");
         }
     }
-}
 
+    @Override
+    public String toString() {
+        return (policyName == null ? "default" : policyName) + " v" + version + " " + policy;
+    }
+}
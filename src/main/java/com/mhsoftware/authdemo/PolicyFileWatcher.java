@@ -0,0 +1,156 @@
+package com.mhsoftware.authdemo;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ * Loads the password policies from a YAML file, and reloads them when the
+ * file changes. The file is a map of policy names to their settings. The
+ * policy named default is the default policy, and it has to be there:
+ *
+ * <pre>
+ * default:
+ *   minLength: 8
+ * lockout:
+ *   minLength: 8
+ *   maxBadLogins: 5
+ * </pre>
+ *
+ * The whole file replaces all of the policies at once with
+ * PasswordPolicyValidator.replacePolicies(). If the file can't be read or a
+ * policy in it is invalid, nothing changes and the error is printed, so a
+ * mistake while editing the file doesn't take away the running policy.
+ *
+ * The watch is on the directory, so editors that write a new file and rename
+ * it over the old one are handled too.
+ *
+ * @author gsexton
+ */
+public class PolicyFileWatcher {
+
+    public static final String POLICY_FILE = "password-policy.yaml";
+
+    public static final String DEFAULT_POLICY_NAME = "default";
+
+    private final File file;
+    private WatchService watchService;
+    private volatile long lastLoaded;
+
+    public PolicyFileWatcher(File file) {
+        this.file = file.getAbsoluteFile();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Read the file and install its policies.
+     *
+     * @return long The new policy version.
+     *
+     * @throws IOException If the file can't be read.
+     * @throws IllegalArgumentException If the file isn't valid. The current policies are left alone.
+     */
+    public long load() throws IOException {
+        Object document;
+        try (InputStream is = new FileInputStream(file)) {
+            document = new Yaml(new SafeConstructor()).load(is);
+        } catch (YAMLException ye) {
+            throw new IllegalArgumentException(file + " is not valid YAML. " + ye.getMessage());
+        }
+        if (!(document instanceof Map)) {
+            throw new IllegalArgumentException(file + " does not contain a map of password policies.");
+        }
+        Map<String, Map<String, Object>> policies = new HashMap<>();
+        for (Map.Entry<?, ?> me: ((Map<?, ?>)document).entrySet()) {
+            String name = String.valueOf(me.getKey());
+            if (!(me.getValue() instanceof Map)) {
+                throw new IllegalArgumentException("The password policy " + name + " in " + file + " is not a map of settings.");
+            }
+            Map<String, Object> settings = new HashMap<>();
+            for (Map.Entry<?, ?> setting: ((Map<?, ?>)me.getValue()).entrySet()) {
+                settings.put(String.valueOf(setting.getKey()), setting.getValue());
+            }
+            policies.put(DEFAULT_POLICY_NAME.equals(name) ? null : name, settings);
+        }
+        if (!policies.containsKey(null)) {
+            throw new IllegalArgumentException(file + " does not have a " + DEFAULT_POLICY_NAME + " password policy.");
+        }
+        long version = PasswordPolicyValidator.replacePolicies(policies);
+        lastLoaded = System.currentTimeMillis();
+        return version;
+    }
+
+    /** @return long When the file was last loaded successfully, or 0. */
+    public long getLastLoaded() {
+        return lastLoaded;
+    }
+
+    /**
+     * Start a daemon thread that reloads the file whenever it changes.
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        // The thread gets its own reference, since stop() clears the field before it may have started.
+        WatchService service = FileSystems.getDefault().newWatchService();
+        file.getParentFile().toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        Thread watcher = new Thread(() -> watch(service), "authdemo-policy-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public synchronized void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private void watch(WatchService service) {
+        Path name = file.toPath().getFileName();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event: key.pollEvents()) {
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context());
+                }
+                key.reset();
+                if (changed && file.exists()) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Stopped.
+        }
+    }
+
+    private void reload() {
+        long previous = PasswordPolicyValidator.getVersion();
+        try {
+            long version = load();
+            System.out.println("Reloaded the password policies from " + file + ". Version " + version + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("The password policies in " + file + " were not reloaded, version " + previous
+                               + " is still in use. " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The replica side of account store replication. See ReplicationServer for
+ * the protocol.
+ *
+ * The client makes the AccountStore a read-only, in-memory replica, connects
+ * to the primary, and applies the snapshot and changes it receives. Reads are
+ * served from the local store. If the connection drops, it reconnects and
+ * asks for the offset after the last one it applied, so it only gets a new
+ * snapshot if the primary's log no longer has what it needs (or the primary
+ * was restarted).
+ *
+ * Lag is measured two ways. getLag() is the number of changes the primary has
+ * that haven't been applied here. getApplyDelayMillis() is how long after the
+ * primary made the most recent change it was applied here. Both use the
+ * primary's clock, so the delay is only meaningful on the same machine or with
+ * synchronized clocks.
+ *
+ * @author gsexton
+ */
+public class ReplicationClient {
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final AccountStore store;
+    private final String host;
+    private final int port;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile Socket socket;
+
+    private volatile long epoch;
+    /** The offset of the next change we need, or -1 before the first snapshot. */
+    private volatile long nextOffset = -1;
+    private volatile long primaryOffset = -1;
+    private volatile long applyDelayMillis;
+    private volatile long lastContact;
+    private volatile boolean connected;
+    private volatile long snapshotCount;
+
+    public ReplicationClient(AccountStore store, String host, int port) {
+        this.store = store;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Make the store a replica and start replicating. The replication thread isn't a
+     * daemon, so the process keeps running.
+     */
+    public void start() {
+        store.setReadOnlyReplica();
+        running = true;
+        thread = new Thread(this::run, "authdemo-replica");
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ioe) {
+                // Closing anyway.
+            }
+        }
+        thread.interrupt();
+    }
+
+    /** @return long The number of changes the primary has made that haven't been applied here, or -1 if unknown. */
+    public long getLag() {
+        long applied = nextOffset, primary = primaryOffset;
+        return applied < 0 || primary < 0 ? -1 : Math.max(0, primary - applied);
+    }
+
+    /** @return long The offset of the next change this replica needs. */
+    public long getAppliedOffset() {
+        return nextOffset;
+    }
+
+    public long getApplyDelayMillis() {
+        return applyDelayMillis;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /** @return long The number of snapshots received. */
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public String getStatus() {
+        return "primary=" + host + ":" + port + (connected ? " connected" : " disconnected")
+            + " applied=" + nextOffset + " primaryOffset=" + primaryOffset + " lag=" + getLag() + " ops"
+            + " applyDelay=" + applyDelayMillis + " ms snapshots=" + snapshotCount
+            + (lastContact == 0 ? "" : " lastContact=" + (System.currentTimeMillis() - lastContact) + " ms ago");
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(host, port)) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                replicate(s);
+            } catch (IOException ioe) {
+                if (running && connected) {
+                    System.err.println("Replication connection lost: " + ioe);
+                }
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void replicate(Socket s) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 65536));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeLong(epoch);
+        out.writeLong(nextOffset);
+        out.flush();
+        long primaryEpoch = in.readLong();
+        if (primaryEpoch != epoch) {
+            // A different primary process. Our offsets mean nothing to it.
+            epoch = primaryEpoch;
+            nextOffset = -1;
+        }
+        connected = true;
+        while (running) {
+            byte type = in.readByte();
+            lastContact = System.currentTimeMillis();
+            switch (type) {
+            case ReplicationServer.FRAME_SNAPSHOT:
+                readSnapshot(in);
+                break;
+            case ReplicationServer.FRAME_PUT:
+            case ReplicationServer.FRAME_DELETE:
+                applyChange(type, in);
+                break;
+            case ReplicationServer.FRAME_HEARTBEAT:
+                primaryOffset = in.readLong();
+                in.readLong();
+                break;
+            default:
+                throw new IOException("Unexpected frame type " + type + " from the primary.");
+            }
+            // Acknowledge whenever we've caught up with what's been received.
+            if (in.available() == 0) {
+                out.writeByte(ReplicationServer.FRAME_ACK);
+                out.writeLong(nextOffset);
+                out.flush();
+            }
+        }
+    }
+
+    private void readSnapshot(DataInputStream in) throws IOException {
+        long offset = in.readLong();
+        AccountStore.Store snapshot = new AccountStore.Store();
+        snapshot.nextUserID = in.readInt();
+        int count = in.readInt();
+        List<UserAccount> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(AccountCodec.readAccount(in));
+        }
+        snapshot.users = users;
+        store.installReplicaSnapshot(snapshot);
+        nextOffset = offset;
+        primaryOffset = Math.max(primaryOffset, offset);
+        snapshotCount++;
+    }
+
+    private void applyChange(byte type, DataInputStream in) throws IOException {
+        long offset = in.readLong();
+        long timestamp = in.readLong();
+        int nextUserID = in.readInt();
+        if (offset != nextOffset) {
+            throw new IOException("Expected offset " + nextOffset + " from the primary, but received " + offset + ".");
+        }
+        if (type == ReplicationServer.FRAME_PUT) {
+            store.applyReplicatedPut(AccountCodec.readAccount(in), nextUserID);
+        } else {
+            store.applyReplicatedDelete(in.readInt(), nextUserID);
+        }
+        nextOffset = offset + 1;
+        primaryOffset = Math.max(primaryOffset, nextOffset);
+        applyDelayMillis = System.currentTimeMillis() - timestamp;
+    }
+}
@@ -0,0 +1,308 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The primary side of account store replication.
+ *
+ * The server registers as the AccountStore's MutationListener, and appends
+ * every change to an in-memory log. Each change gets the next offset in
+ * sequence. The log keeps the most recent changes (DEFAULT_LOG_SIZE by
+ * default).
+ *
+ * Replicas connect over a socket and send the epoch and offset they need
+ * next. If the epoch matches and the log still holds that offset, streaming
+ * resumes from there. Otherwise the replica gets a snapshot of the whole
+ * store along with the offset it corresponds to, and streaming continues
+ * from that offset. When there's nothing to send, a heartbeat with the
+ * primary's current offset goes out once a second so replicas can compute
+ * their lag. Replicas answer heartbeats with the offset they've applied,
+ * which is what getReplicaStatus() reports.
+ *
+ * The epoch is a random number picked when the server starts, so a replica
+ * doesn't try to resume from an offset of a different primary process.
+ *
+ * The wire format (DataOutputStream) is:
+ *
+ * replica -&gt; primary: long epoch, long nextOffset (-1 for none), then 'A' long appliedOffset ...
+ * primary -&gt; replica: long epoch, then frames:
+ *
+ * 'S' long offset, int nextUserID, int count, count * account
+ * 'P' long offset, long timestamp, int nextUserID, account
+ * 'D' long offset, long timestamp, int nextUserID, int userID
+ * 'H' long nextOffset, long timestamp
+ *
+ * Accounts are encoded with AccountCodec.
+ *
+ * There's no authentication or encryption on the connection, and the stream
+ * includes the password hashes, so the server listens on the loopback
+ * address unless it's told otherwise.
+ *
+ * @author gsexton
+ */
+public class ReplicationServer implements AccountStore.MutationListener {
+
+    public static final int DEFAULT_PORT = 9400;
+    public static final int DEFAULT_LOG_SIZE = 100000;
+
+    static final byte FRAME_SNAPSHOT = 'S';
+    static final byte FRAME_PUT = 'P';
+    static final byte FRAME_DELETE = 'D';
+    static final byte FRAME_HEARTBEAT = 'H';
+    static final byte FRAME_ACK = 'A';
+
+    static final long HEARTBEAT_MILLIS = 1000;
+    private static final int MAX_FRAMES_PER_WRITE = 1024;
+
+    /** What we know about a connected replica. */
+    private static class ReplicaSession {
+        final String address;
+        volatile long appliedOffset = -1;
+        volatile long lastAck;
+
+        ReplicaSession(String address) {
+            this.address = address;
+        }
+    }
+
+    private final AccountStore store;
+    private final InetAddress bindAddress;
+    private final int port;
+    private final long epoch = new SecureRandom().nextLong();
+
+    /*
+        The log is a ring of encoded frames. The frame for offset o is at o % log.length.
+        Guarded by synchronized (log).
+    */
+    private final byte[][] log;
+    private long nextOffset;
+
+    private final List<ReplicaSession> sessions = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+
+    public ReplicationServer(AccountStore store, int port) {
+        this(store, InetAddress.getLoopbackAddress(), port, DEFAULT_LOG_SIZE);
+    }
+
+    /**
+     * @param port The port to listen on. Zero picks a free port.
+     * @param logSize The number of changes kept for replicas that reconnect.
+     */
+    public ReplicationServer(AccountStore store, InetAddress bindAddress, int port, int logSize) {
+        this.store = store;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.log = new byte[logSize][];
+    }
+
+    /**
+     * Start listening for replicas. The accept thread isn't a daemon, so the process
+     * keeps running to serve replicas.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, bindAddress);
+        store.setMutationListener(this);
+        Thread acceptor = new Thread(this::acceptConnections, "authdemo-replication-accept");
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket == null ? port : serverSocket.getLocalPort();
+    }
+
+    public void stop() throws IOException {
+        store.setMutationListener(null);
+        serverSocket.close();
+    }
+
+    /** @return long The offset the next change will get. */
+    public long getNextOffset() {
+        synchronized (log) {
+            return nextOffset;
+        }
+    }
+
+    /**
+     * @return List&lt;String&gt; One line per connected replica with its applied offset and lag.
+     */
+    public List<String> getReplicaStatus() {
+        long current = getNextOffset();
+        List<String> status = new ArrayList<>();
+        for (ReplicaSession session: sessions) {
+            long applied = session.appliedOffset;
+            status.add(session.address + " applied=" + applied + " lag=" + (applied < 0 ? "unknown" : String.valueOf(current - applied)) + " ops"
+                       + (session.lastAck == 0 ? "" : ", last ack " + (System.currentTimeMillis() - session.lastAck) + " ms ago"));
+        }
+        return status;
+    }
+
+    /*
+        MutationListener. These are called with the store locked.
+    */
+
+    public void accountPut(UserAccount user, int nextUserID) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bos);
+            synchronized (log) {
+                out.writeByte(FRAME_PUT);
+                out.writeLong(nextOffset);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(nextUserID);
+                AccountCodec.writeAccount(out, user);
+                append(bos.toByteArray());
+            }
+        } catch (IOException ioe) {
+            // Writing to a byte array doesn't fail.
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    public void accountDeleted(int userID, int nextUserID) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bos);
+            synchronized (log) {
+                out.writeByte(FRAME_DELETE);
+                out.writeLong(nextOffset);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(nextUserID);
+                out.writeInt(userID);
+                append(bos.toByteArray());
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    private void append(byte[] frame) {
+        log[(int)(nextOffset % log.length)] = frame;
+        nextOffset++;
+        log.notifyAll();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread t = new Thread(() -> serve(socket), "authdemo-replication-" + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException ioe) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println(ioe);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        ReplicaSession session = new ReplicaSession(String.valueOf(socket.getRemoteSocketAddress()));
+        sessions.add(session);
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 65536));
+            long replicaEpoch = in.readLong();
+            long next = in.readLong();
+            if (replicaEpoch != epoch) {
+                next = -1;
+            }
+            out.writeLong(epoch);
+
+            Thread ackReader = new Thread(() -> readAcks(in, session), "authdemo-replication-ack-" + s.getRemoteSocketAddress());
+            ackReader.setDaemon(true);
+            ackReader.start();
+
+            List<byte[]> frames = new ArrayList<>(MAX_FRAMES_PER_WRITE);
+            while (!s.isClosed() && ackReader.isAlive()) {
+                frames.clear();
+                boolean needSnapshot;
+                long current;
+                synchronized (log) {
+                    needSnapshot = next < 0 || next > nextOffset;
+                    if (!needSnapshot && next == nextOffset) {
+                        log.wait(HEARTBEAT_MILLIS);
+                    }
+                    // The replica may have fallen so far behind that the log no longer has what it needs.
+                    needSnapshot = needSnapshot || next < nextOffset - log.length;
+                    if (!needSnapshot) {
+                        for (long o = next; o < nextOffset && frames.size() < MAX_FRAMES_PER_WRITE; o++) {
+                            frames.add(log[(int)(o % log.length)]);
+                        }
+                    }
+                    current = nextOffset;
+                }
+                if (needSnapshot) {
+                    next = sendSnapshot(out);
+                } else if (frames.isEmpty()) {
+                    out.writeByte(FRAME_HEARTBEAT);
+                    out.writeLong(current);
+                    out.writeLong(System.currentTimeMillis());
+                } else {
+                    for (byte[] frame: frames) {
+                        out.write(frame);
+                    }
+                    next += frames.size();
+                }
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // The replica went away. It will reconnect and catch up.
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sessions.remove(session);
+        }
+    }
+
+    /**
+     * Send a snapshot of the store.
+     *
+     * @return long The offset streaming continues from.
+     */
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        AccountStore.Store copy;
+        long offset;
+        // Changes are appended to the log while the store is locked, so holding the
+        // store lock gives a copy and an offset that agree with each other.
+        synchronized (store) {
+            copy = store.copyStore();
+            offset = getNextOffset();
+        }
+        out.writeByte(FRAME_SNAPSHOT);
+        out.writeLong(offset);
+        out.writeInt(copy.nextUserID);
+        out.writeInt(copy.users.size());
+        for (UserAccount user: copy.users) {
+            AccountCodec.writeAccount(out, user);
+        }
+        return offset;
+    }
+
+    private void readAcks(DataInputStream in, ReplicaSession session) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type != FRAME_ACK) {
+                    throw new IOException("Unexpected frame type " + type + " from replica " + session.address);
+                }
+                session.appliedOffset = in.readLong();
+                session.lastAck = System.currentTimeMillis();
+            }
+        } catch (IOException ioe) {
+            // Connection closed.
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Online backups of an AccountStore.
+ *
+ * Copying account-info.yaml isn't a good backup. It only holds what was
+ * last written, and the only way to be sure of a quiet moment is to stop
+ * the writers. Here, backup() holds the store lock only while it copies the
+ * accounts (AccountStore.copyStore()). That's a copy of the objects in
+ * memory, with no I/O. Encoding, compressing and writing the copy all happen
+ * after the lock is released, so logins carry on while the file is written.
+ *
+ * The backup file is gzipped, and inside that it's:
+ *
+ * int magic, int version, long created, int nextUserID, int count,
+ * count * account (AccountCodec), byte[32] SHA-256
+ *
+ * The SHA-256 covers everything before it. verify() reads the whole file,
+ * checks the digest and that every account can be decoded, and gzip's own
+ * CRC catches damage to the compressed data. The file is written under a
+ * temporary name and renamed when it's complete, so a backup that fails
+ * part way doesn't leave a file that looks finished.
+ *
+ * @author gsexton
+ */
+public final class StoreBackup {
+
+    private static final int MAGIC = 0x4144424b;
+    private static final int VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+
+    /** What's in a backup, and how long it took to make. */
+    public static class BackupInfo {
+        public final File file;
+        public final Date created;
+        public final int nextUserID;
+        public final int accounts;
+        public final String sha256;
+        /** How long the store was locked while the accounts were copied, in nanoseconds. 0 if not a new backup. */
+        public final long lockNanos;
+        /** How long the backup took altogether, in nanoseconds. 0 if not a new backup. */
+        public final long totalNanos;
+
+        BackupInfo(File file, Date created, int nextUserID, int accounts, String sha256, long lockNanos, long totalNanos) {
+            this.file = file;
+            this.created = created;
+            this.nextUserID = nextUserID;
+            this.accounts = accounts;
+            this.sha256 = sha256;
+            this.lockNanos = lockNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + accounts + " accounts, nextUserID " + nextUserID + ", created " + created + ", SHA-256 " + sha256
+                + (totalNanos == 0 ? "" : String.format(", store locked %.2f ms, %.2f ms in all", lockNanos / 1e6, totalNanos / 1e6));
+        }
+    }
+
+    private StoreBackup() {
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM has to have SHA-256.
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Back up the store to file, replacing it if it exists.
+     */
+    public static BackupInfo backup(AccountStore store, File file) throws IOException {
+        long start = System.nanoTime();
+        AccountStore.Store copy;
+        long lockNanos;
+        // copyStore() locks the store too. Taking the lock here first means only the time it's held is counted.
+        synchronized (store) {
+            long locked = System.nanoTime();
+            copy = store.copyStore();
+            lockNanos = System.nanoTime() - locked;
+        }
+        Date created = new Date();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        MessageDigest digest = sha256();
+        try {
+            try (OutputStream os = new GZIPOutputStream(new FileOutputStream(tmp), 65536)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(os, digest), 65536));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(created.getTime());
+                out.writeInt(copy.nextUserID);
+                out.writeInt(copy.users.size());
+                for (UserAccount user: copy.users) {
+                    AccountCodec.writeAccount(out, user);
+                }
+                out.flush();
+                // Written past the digest stream, so it isn't part of the digest.
+                os.write(digest.digest());
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            tmp.delete();
+            throw ioe;
+        }
+        // Read it back, which checks what was written.
+        BackupInfo written = verify(file);
+        return new BackupInfo(file, written.created, written.nextUserID, written.accounts, written.sha256,
+                              lockNanos, System.nanoTime() - start);
+    }
+
+    /**
+     * Check a backup file.
+     *
+     * @throws IOException If the file can't be read, isn't a backup, or is damaged.
+     */
+    public static BackupInfo verify(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Replace the contents of store with a backup. The backup is read and checked
+     * completely before the store is touched.
+     */
+    public static BackupInfo restore(AccountStore store, File file) throws IOException {
+        AccountStore.Store backup = new AccountStore.Store();
+        backup.users = new ArrayList<>();
+        BackupInfo info = read(file, backup.users);
+        backup.nextUserID = info.nextUserID;
+        store.restoreStore(backup);
+        return info;
+    }
+
+    /**
+     * @param users The accounts are added to this, or thrown away if it's null.
+     */
+    private static BackupInfo read(File file, List<UserAccount> users) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream is = new GZIPInputStream(new FileInputStream(file), 65536)) {
+            // The digest stream is above the buffer, so it sees exactly what's been decoded.
+            DigestInputStream dis = new DigestInputStream(new BufferedInputStream(is, 65536), digest);
+            DataInputStream in = new DataInputStream(dis);
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an account store backup.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " backup, which this version can't read.");
+            }
+            Date created = new Date(in.readLong());
+            int nextUserID = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UserAccount user = AccountCodec.readAccount(in);
+                if (users != null) {
+                    users.add(user);
+                }
+            }
+            dis.on(false);
+            byte[] expected = new byte[DIGEST_LENGTH];
+            in.readFully(expected);
+            if (in.read() != -1) {
+                throw new IOException(file + " has data after the end of the backup.");
+            }
+            byte[] actual = digest.digest();
+            if (!Arrays.equals(expected, actual)) {
+                throw new IOException(file + " is damaged. Its SHA-256 doesn't match its contents.");
+            }
+            return new BackupInfo(file, created, nextUserID, count, hex(actual), 0, 0);
+        } catch (EOFException eofe) {
+            throw new IOException(file + " is incomplete.", eofe);
+        }
+    }
+}
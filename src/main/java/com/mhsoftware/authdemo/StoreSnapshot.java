@@ -0,0 +1,147 @@
+package com.mhsoftware.authdemo;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A binary copy of the store, kept next to the store file as
+ * account-info.yaml.snapshot, so a process that starts up doesn't have to
+ * parse the YAML.
+ *
+ * The snapshot records the modification time, length and CRC-32 of the
+ * store file it was made from. It's only used if all three still match, so
+ * editing the YAML by hand, or replacing it, makes the store read the YAML
+ * again (and write a new snapshot). The time and length are checked first,
+ * since they're free, and then the checksum, which means reading the YAML
+ * file but not parsing it. The snapshot has its own CRC-32 at the end, so a
+ * damaged one is ignored too.
+ *
+ * The format is:
+ *
+ * int magic, int version, long storeModified, long storeLength, long storeChecksum,
+ * int nextUserID, int count, count * account (AccountCodec), long snapshotChecksum
+ *
+ * @author gsexton
+ */
+final class StoreSnapshot {
+
+    static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x41445353;
+    private static final int VERSION = 1;
+
+    private StoreSnapshot() {
+    }
+
+    static File snapshotFile(File storeFile) {
+        return new File(storeFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return long The CRC-32 of the file's contents.
+     */
+    static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        try (InputStream is = new FileInputStream(f)) {
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Read the snapshot of storeFile.
+     *
+     * @return AccountStore.Store The store, or null if there's no snapshot, it's out of date, or it's damaged.
+     */
+    static AccountStore.Store read(File storeFile) {
+        File f = snapshotFile(storeFile);
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != storeFile.lastModified() || in.readLong() != storeFile.length()
+                || in.readLong() != checksum(storeFile)) {
+                return null;
+            }
+            // The last eight bytes are the checksum of everything before them.
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+                return null;
+            }
+            AccountStore.Store store = new AccountStore.Store();
+            store.nextUserID = in.readInt();
+            int count = in.readInt();
+            List<UserAccount> users = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                users.add(AccountCodec.readAccount(in));
+            }
+            store.users = users;
+            return store;
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            return null;
+        } catch (IOException ioe) {
+            System.err.println("Unable to read " + f + ": " + ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Write a snapshot of store, which has just been read from or written to storeFile.
+     *
+     * @param storeChecksum The checksum of storeFile.
+     */
+    static void write(File storeFile, AccountStore.Store store, long storeChecksum) {
+        File f = snapshotFile(storeFile);
+        File tmp = new File(f.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc), 65536));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(storeFile.lastModified());
+                out.writeLong(storeFile.length());
+                out.writeLong(storeChecksum);
+                out.writeInt(store.nextUserID);
+                out.writeInt(store.users.size());
+                for (UserAccount user: store.users) {
+                    AccountCodec.writeAccount(out, user);
+                }
+                out.flush();
+                // Written straight to the file, so it isn't part of the checksum.
+                new DataOutputStream(fos).writeLong(crc.getValue());
+            }
+            try {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            System.err.println("Unable to write " + f + ": " + ioe);
+            tmp.delete();
+        }
+    }
+}
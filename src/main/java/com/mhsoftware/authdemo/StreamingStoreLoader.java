@@ -0,0 +1,278 @@
+package com.mhsoftware.authdemo;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+
+/**
+ * Loads the store file from the SnakeYAML parse events, rather than with
+ * yaml.load().
+ *
+ * yaml.load() composes a node tree for the entire file, and then constructs
+ * the Store object graph from it. For a large store, the node tree is several
+ * times the size of the accounts themselves, so peak heap during startup is
+ * much larger than the heap needed to hold the store.
+ *
+ * This reads the events one at a time, and collects the raw scalar values of
+ * each account into a small array. Batches of those arrays are decoded into
+ * UserAccounts (ints, booleans, timestamps) on an Executor, so decoding runs
+ * in parallel with parsing. Nothing larger than a batch of raw values is held
+ * in addition to the accounts themselves.
+ *
+ * Only the structure written by AccountStore.serializeStore() is supported. If
+ * anything unexpected turns up (an unknown field, an alias, a nested
+ * collection), an UnsupportedStructureException is thrown, and the caller
+ * should fall back to yaml.load().
+ *
+ * @author gsexton
+ */
+class StreamingStoreLoader {
+
+    /** The number of accounts decoded per task. */
+    private static final int BATCH_SIZE = 2048;
+
+    /** The UserAccount fields, in the order of the raw value arrays. */
+    private static final String[] FIELDS = {
+        "userID", "userName", "fullName", "password", "emailAddress", "enabled",
+        "lastSignin", "pwdChangeDate", "badLoginCount", "lastBadSignin"
+    };
+
+    private static final String STORE_TAG = "tag:yaml.org,2002:" + AccountStore.Store.class.getName();
+
+    /** Timestamp parsing keeps state in a Calendar, so each thread gets its own. */
+    private static final ThreadLocal<SafeConstructor.ConstructYamlTimestamp> timestampConstructor =
+        ThreadLocal.withInitial(SafeConstructor.ConstructYamlTimestamp::new);
+
+    /** Thrown when the file contains something this loader doesn't handle. */
+    static class UnsupportedStructureException extends RuntimeException {
+        UnsupportedStructureException(String message, Event event) {
+            super(message + (event == null ? "" : " at " + event.getStartMark()));
+        }
+    }
+
+    private final Executor executor;
+
+    /**
+     * @param executor Runs the decoding of account batches.
+     */
+    StreamingStoreLoader(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Load a store.
+     *
+     * @throws UnsupportedStructureException If the file isn't in the format written by AccountStore.
+     */
+    AccountStore.Store load(Reader reader) throws IOException {
+        Iterator<Event> events = new Yaml().parse(reader).iterator();
+        AccountStore.Store store = new AccountStore.Store();
+        List<CompletableFuture<UserAccount[]>> batches = new ArrayList<>();
+        int accountCount = 0;
+
+        expect(events, Event.ID.StreamStart);
+        expect(events, Event.ID.DocumentStart);
+        Event event = expect(events, Event.ID.MappingStart);
+        String tag = ((CollectionStartEvent)event).getTag();
+        if (tag != null && !tag.equals(STORE_TAG)) {
+            throw new UnsupportedStructureException("Unexpected tag " + tag, event);
+        }
+        while ((event = next(events)).is(Event.ID.Scalar)) {
+            String key = ((ScalarEvent)event).getValue();
+            switch (key) {
+            case "nextUserID":
+                store.nextUserID = toInt(scalar(events));
+                break;
+            case "users":
+                store.users = null;
+                event = next(events);
+                if (event.is(Event.ID.Scalar) && isNull((ScalarEvent)event)) {
+                    break;
+                }
+                if (!event.is(Event.ID.SequenceStart)) {
+                    throw new UnsupportedStructureException("Expected a sequence of users", event);
+                }
+                List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+                while ((event = next(events)).is(Event.ID.MappingStart)) {
+                    batch.add(readAccount(events));
+                    accountCount++;
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.add(decodeAsync(batch));
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!event.is(Event.ID.SequenceEnd)) {
+                    throw new UnsupportedStructureException("Expected the end of the users", event);
+                }
+                if (!batch.isEmpty()) {
+                    batches.add(decodeAsync(batch));
+                }
+                store.users = new ArrayList<>(accountCount);
+                break;
+            default:
+                throw new UnsupportedStructureException("Unknown store field " + key, event);
+            }
+        }
+        if (!event.is(Event.ID.MappingEnd)) {
+            throw new UnsupportedStructureException("Expected the end of the store", event);
+        }
+        expect(events, Event.ID.DocumentEnd);
+
+        if (store.users == null) {
+            store.users = new ArrayList<>();
+        }
+        for (CompletableFuture<UserAccount[]> batch: batches) {
+            try {
+                for (UserAccount user: batch.get()) {
+                    store.users.add(user);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading the store.", ie);
+            } catch (ExecutionException ee) {
+                throw new UnsupportedStructureException("Unable to decode an account. " + ee.getCause(), null);
+            }
+        }
+        return store;
+    }
+
+    private static Event next(Iterator<Event> events) {
+        while (events.hasNext()) {
+            Event event = events.next();
+            if (event.is(Event.ID.Alias)) {
+                throw new UnsupportedStructureException("Aliases are not supported", event);
+            }
+            if (!event.is(Event.ID.Comment)) {
+                return event;
+            }
+        }
+        throw new UnsupportedStructureException("Unexpected end of file", null);
+    }
+
+    private static Event expect(Iterator<Event> events, Event.ID id) {
+        Event event = next(events);
+        if (!event.is(id)) {
+            throw new UnsupportedStructureException("Expected " + id + " but found " + event.getEventId(), event);
+        }
+        return event;
+    }
+
+    private static boolean isNull(ScalarEvent event) {
+        if (!event.isPlain()) {
+            return false;
+        }
+        String value = event.getValue();
+        return value.isEmpty() || value.equals("~") || value.equalsIgnoreCase("null");
+    }
+
+    /**
+     * @return String The value of the next scalar event, or null if it's a YAML null.
+     */
+    private static String scalar(Iterator<Event> events) {
+        Event event = expect(events, Event.ID.Scalar);
+        ScalarEvent se = (ScalarEvent)event;
+        return isNull(se) ? null : se.getValue();
+    }
+
+    /**
+     * Collect the raw values of one account mapping. The MappingStart has already been read.
+     */
+    private static String[] readAccount(Iterator<Event> events) {
+        String[] values = new String[FIELDS.length];
+        Event event;
+        while ((event = next(events)).is(Event.ID.Scalar)) {
+            String key = ((ScalarEvent)event).getValue();
+            int field = fieldIndex(key);
+            if (field < 0) {
+                throw new UnsupportedStructureException("Unknown account field " + key, event);
+            }
+            values[field] = scalar(events);
+        }
+        if (!event.is(Event.ID.MappingEnd)) {
+            throw new UnsupportedStructureException("Expected the end of an account", event);
+        }
+        return values;
+    }
+
+    private static int fieldIndex(String key) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private CompletableFuture<UserAccount[]> decodeAsync(List<String[]> batch) {
+        return CompletableFuture.supplyAsync(() -> {
+            UserAccount[] accounts = new UserAccount[batch.size()];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = decode(batch.get(i));
+            }
+            return accounts;
+        }, executor);
+    }
+
+    static UserAccount decode(String[] values) {
+        UserAccount user = new UserAccount();
+        user.userID = toInt(values[0]);
+        user.userName = values[1];
+        user.fullName = values[2];
+        user.password = values[3];
+        user.emailAddress = values[4];
+        user.enabled = toBoolean(values[5]);
+        user.lastSignin = toDate(values[6]);
+        user.pwdChangeDate = toDate(values[7]);
+        user.badLoginCount = toInt(values[8]);
+        user.lastBadSignin = toDate(values[9]);
+        return user;
+    }
+
+    /**
+     * Only plain decimal numbers are handled. YAML also allows things like 0x1f and 
+     * 1:30, which SnakeYAML reads when the caller falls back to it. 
+     */
+    private static int toInt(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value.replace("_", ""));
+        } catch (NumberFormatException nfe) {
+            throw new UnsupportedStructureException("Unable to read the number " + value, null);
+        }
+    }
+
+    private static boolean toBoolean(String value) {
+        if (value == null) {
+            return false;
+        }
+        switch (value.toLowerCase()) {
+        case "true":
+        case "yes":
+        case "on":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static Date toDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        ScalarNode node = new ScalarNode(Tag.TIMESTAMP, value, null, null, DumperOptions.ScalarStyle.PLAIN);
+        return (Date)timestampConstructor.get().construct(node);
+    }
+}
@@ -0,0 +1,321 @@
+package com.mhsoftware.authdemo;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Many account stores in one process, one per tenant (customer), so we don't
+ * need a JVM for each of them.
+ *
+ * Each tenant has its own directory under the tenant directory (tenants by
+ * default, or -Dauthdemo.tenant.dir), holding its account-info.yaml and its
+ * snapshot. A tenant uses the password policy with the same name as the
+ * tenant if there is one, and the default policy otherwise. That's decided
+ * for each operation, so a tenant picks up a policy added after it was opened.
+ *
+ * What's shared between the tenants:
+ *
+ * The request threads, the password hashing pool (one thread per core) and
+ * the store writer (-Dauthdemo.tenant.flushThreads, 1 by default) used by
+ * the tenants' LoginPipelines. The Argon2 working memory pool is static, so
+ * it's shared too.
+ *
+ * The quotas that keep one tenant from using all of it:
+ *
+ * -Dauthdemo.tenant.maxHashThreads is how many of the hashing threads one
+ * tenant can use at a time (half of them by default), and
+ * -Dauthdemo.tenant.maxAccounts limits the number of accounts in a tenant's
+ * store (0, the default, means no limit).
+ *
+ * Tenants are opened when they're first used, and their stores are read from
+ * disk on first access. A store that hasn't been used for
+ * -Dauthdemo.tenant.idleSeconds (300 by default) and has no logins in flight
+ * is unloaded. The tenant stays open, and its store is read again the next
+ * time it's used.
+ *
+ * With -Dauthdemo.tier.inactiveDays, the same thread also moves each loaded
+ * tenant's inactive accounts to its cold tier (see AccountStore.demoteInactive()).
+ *
+ * Tenants all write to the same audit log.
+ *
+ * @author gsexton
+ */
+public class TenantManager implements AutoCloseable {
+
+    public static final String TENANT_DIR = "tenants";
+
+    private static final Pattern TENANT_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_.-]*");
+
+    /**
+     * One tenant's store and the things that go with it.
+     */
+    public static class Tenant {
+        public final String name;
+        public final AccountStore store;
+        public final AuthenticationProviderImpl authenticationProvider;
+        public final LoginPipeline pipeline;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile int unloadCount;
+
+        Tenant(String name, AccountStore store, AuthenticationProviderImpl authenticationProvider, LoginPipeline pipeline) {
+            this.name = name;
+            this.store = store;
+            this.authenticationProvider = authenticationProvider;
+            this.pipeline = pipeline;
+        }
+
+        /** @return long When the tenant was last used. */
+        public long getLastAccess() {
+            return lastAccess;
+        }
+
+        /** @return int The number of times the tenant's store has been unloaded. */
+        public int getUnloadCount() {
+            return unloadCount;
+        }
+
+        @Override
+        public String toString() {
+            PasswordPolicyValidator policy = authenticationProvider.getPasswordPolicyValidator();
+            return name + ": " + (store.isLoaded() ? store.getHotCount() + " hot and " + store.getColdCount() + " cold accounts" : "not loaded")
+                + ", " + store.getWriteCount() + " store writes, " + pipeline.getLoginCount() + " pipeline logins ("
+                + pipeline.getInFlight() + " in flight, at most " + pipeline.getPeakHashCount() + " hashing), unloaded " + unloadCount + " times, idle "
+                + (System.currentTimeMillis() - lastAccess) / 1000 + " s, policy " + policy;
+        }
+    }
+
+    /**
+     * A tenant's authentication provider. It looks the policy up by the tenant's name
+     * each time, rather than keeping the validator it started with.
+     */
+    private static class TenantAuthenticationProvider extends AuthenticationProviderImpl {
+        private final String policyName;
+
+        TenantAuthenticationProvider(String policyName) {
+            super(null);
+            this.policyName = policyName;
+        }
+
+        @Override
+        public PasswordPolicyValidator getPasswordPolicyValidator() {
+            Map<String, PasswordPolicyValidator> validators = PasswordPolicyValidator.getInstances();
+            PasswordPolicyValidator validator = validators.get(policyName);
+            return validator == null ? validators.get(null) : validator;
+        }
+    }
+
+    private final File directory;
+    private final long idleMillis;
+    private final int maxAccounts;
+    private final int maxHashThreads;
+    private final Map<String, Tenant> tenants = new TreeMap<>();
+
+    private final ExecutorService requests;
+    private final boolean virtualThreads;
+    private final ExecutorService hashing;
+    private final ExecutorService writer;
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * A manager configured from the system properties described above.
+     */
+    public TenantManager() {
+        this(new File(System.getProperty("authdemo.tenant.dir", TENANT_DIR)),
+             TimeUnit.SECONDS.toMillis(Long.getLong("authdemo.tenant.idleSeconds", 300)),
+             Integer.getInteger("authdemo.tenant.maxAccounts", 0),
+             Integer.getInteger("authdemo.tenant.maxHashThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    /**
+     * @param directory The directory holding a directory for each tenant.
+     * @param idleMillis How long a store has to be unused before it's unloaded. 0 turns unloading off,
+     *                   except through unloadIdle().
+     * @param maxAccounts The most accounts in each tenant's store, or 0 for no limit.
+     * @param maxHashThreads The most hashing threads each tenant can use at a time.
+     */
+    public TenantManager(File directory, long idleMillis, int maxAccounts, int maxHashThreads) {
+        this(directory, idleMillis, maxAccounts, Runtime.getRuntime().availableProcessors(), maxHashThreads);
+    }
+
+    /**
+     * @param hashThreads The number of hashing threads the tenants share.
+     */
+    public TenantManager(File directory, long idleMillis, int maxAccounts, int hashThreads, int maxHashThreads) {
+        this.directory = directory;
+        this.idleMillis = idleMillis;
+        this.maxAccounts = maxAccounts;
+        this.maxHashThreads = maxHashThreads;
+        ExecutorService virtual = LoginPipeline.newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        requests = virtualThreads ? virtual
+            : Executors.newFixedThreadPool(Integer.getInteger("authdemo.pipeline.requestThreads", 256), LoginPipeline.namedThreads("authdemo-tenant-login-"));
+        hashing = Executors.newFixedThreadPool(hashThreads, LoginPipeline.namedThreads("authdemo-tenant-hash-"));
+        writer = Executors.newFixedThreadPool(Integer.getInteger("authdemo.tenant.flushThreads", 1), LoginPipeline.namedThreads("authdemo-tenant-writer-"));
+        reaper = Executors.newSingleThreadScheduledExecutor(LoginPipeline.namedThreads("authdemo-tenant-reaper-"));
+        if (idleMillis > 0) {
+            long period = Math.max(1000, idleMillis / 2);
+            reaper.scheduleWithFixedDelay(this::unloadIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+        int inactiveDays = Integer.getInteger("authdemo.tier.inactiveDays", 0);
+        if (inactiveDays > 0) {
+            long period = TimeUnit.MINUTES.toMillis(Integer.getInteger("authdemo.tier.periodMinutes", 60));
+            reaper.scheduleWithFixedDelay(() -> demoteInactive(TimeUnit.DAYS.toMillis(inactiveDays)), period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Move the inactive accounts of each loaded tenant to its cold tier.
+     */
+    private void demoteInactive(long inactiveMillis) {
+        List<Tenant> open;
+        synchronized (tenants) {
+            open = new ArrayList<>(tenants.values());
+        }
+        Date cutoff = new Date(System.currentTimeMillis() - inactiveMillis);
+        for (Tenant tenant: open) {
+            if (tenant.store.isLoaded()) {
+                try {
+                    tenant.store.demoteAllInactive(cutoff, App.DEFAULT_DEMOTION_BATCH);
+                } catch (RuntimeException re) {
+                    System.err.println("The inactive accounts of tenant " + tenant.name + " were not demoted. " + re.getMessage());
+                }
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get a tenant, opening it if this is the first time it's been used. Its store
+     * isn't read until it's accessed.
+     *
+     * @throws IllegalArgumentException If the name isn't a valid tenant name.
+     */
+    public Tenant getTenant(String name) {
+        if (name == null || !TENANT_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("The tenant name " + name + " is not valid. Use letters, digits, '.', '_' and '-'.");
+        }
+        Tenant tenant;
+        synchronized (tenants) {
+            tenant = tenants.get(name);
+            if (tenant == null) {
+                tenant = open(name);
+                tenants.put(name, tenant);
+            }
+        }
+        tenant.lastAccess = System.currentTimeMillis();
+        return tenant;
+    }
+
+    private Tenant open(String name) {
+        File tenantDir = new File(directory, name);
+        if (!tenantDir.isDirectory() && !tenantDir.mkdirs()) {
+            throw new RuntimeException("Unable to create the directory " + tenantDir + " for tenant " + name + "!");
+        }
+        AccountStore store = new AccountStore(new File(tenantDir, AccountStore.STORE_FILE));
+        store.setMaxAccounts(maxAccounts);
+        AuthenticationProviderImpl ap = new TenantAuthenticationProvider(name);
+        LoginPipeline pipeline = new LoginPipeline(store, ap, requests, virtualThreads, hashing, maxHashThreads, writer,
+                                                   LoginPipeline.DEFAULT_MAX_BATCH);
+        return new Tenant(name, store, ap, pipeline);
+    }
+
+    public AccountStore getStore(String name) {
+        return getTenant(name).store;
+    }
+
+    /**
+     * Log in to a tenant through its LoginPipeline.
+     */
+    public CompletableFuture<Boolean> login(String tenantName, String userName, String password) {
+        return getTenant(tenantName).pipeline.login(userName, password);
+    }
+
+    /**
+     * @return List&lt;String&gt; The names of the tenants that have a directory, whether or not
+     *         they've been opened.
+     */
+    public List<String> getTenantNames() {
+        String[] names = directory.list((dir, name) -> new File(dir, name).isDirectory() && TENANT_NAME.matcher(name).matches());
+        List<String> result = new ArrayList<>(names == null ? Arrays.asList() : Arrays.asList(names));
+        synchronized (tenants) {
+            tenants.keySet().stream().filter(name -> !result.contains(name)).forEach(result::add);
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * @return List&lt;String&gt; A line for each open tenant.
+     */
+    public List<String> getStatus() {
+        List<Tenant> open;
+        synchronized (tenants) {
+            open = new ArrayList<>(tenants.values());
+        }
+        List<String> result = new ArrayList<>(open.size());
+        open.forEach(tenant -> result.add(tenant.toString()));
+        return result;
+    }
+
+    /**
+     * Unload the stores that haven't been used for idleMillis, and don't have logins in
+     * flight. The reaper thread calls this periodically.
+     *
+     * @return int The number of stores unloaded.
+     */
+    public int unloadIdle() {
+        return unloadIdle(idleMillis);
+    }
+
+    /**
+     * @param idle How long a store has to have been unused.
+     */
+    public int unloadIdle(long idle) {
+        List<Tenant> open;
+        synchronized (tenants) {
+            open = new ArrayList<>(tenants.values());
+        }
+        long cutoff = System.currentTimeMillis() - idle;
+        int count = 0;
+        for (Tenant tenant: open) {
+            if (tenant.lastAccess <= cutoff && tenant.store.isLoaded() && tenant.pipeline.getInFlight() == 0) {
+                tenant.store.resetStore();
+                tenant.unloadCount++;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finish the logins in flight and stop the shared threads.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        reaper.shutdownNow();
+        List<Tenant> open;
+        synchronized (tenants) {
+            open = new ArrayList<>(tenants.values());
+        }
+        for (Tenant tenant: open) {
+            tenant.pipeline.close();
+        }
+        requests.shutdown();
+        hashing.shutdown();
+        writer.shutdown();
+        writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
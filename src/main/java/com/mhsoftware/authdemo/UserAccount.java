@@ -36,6 +36,11 @@ public class UserAccount {
     public Date pwdChangeDate;
     public int badLoginCount;
     public Date lastBadSignin;
+    /** 
+     * True if the account was just disabled by a lockout, which has already been audited. 
+     * AccountStore clears it when it stores the account. It isn't saved. 
+     */
+    transient boolean lockedOut;
 
     public String toString() {
         DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
@@ -59,6 +64,23 @@ public class UserAccount {
     public UserAccount() {
     }
 
+    /**
+     * Copy constructor. 
+     */
+    public UserAccount(UserAccount other) {
+        userID = other.userID;
+        userName = other.userName;
+        fullName = other.fullName;
+        password = other.password;
+        emailAddress = other.emailAddress;
+        enabled = other.enabled;
+        lastSignin = other.lastSignin == null ? null : new Date(other.lastSignin.getTime());
+        pwdChangeDate = other.pwdChangeDate == null ? null : new Date(other.pwdChangeDate.getTime());
+        badLoginCount = other.badLoginCount;
+        lastBadSignin = other.lastBadSignin == null ? null : new Date(other.lastBadSignin.getTime());
+        lockedOut = other.lockedOut;
+    }
+
     public boolean equals(Object o) {
         if (o instanceof UserAccount) {
             UserAccount other = (UserAccount)o;
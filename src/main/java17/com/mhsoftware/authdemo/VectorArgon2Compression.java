@@ -0,0 +1,136 @@
+package com.mhsoftware.authdemo;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Argon2 compression function using the JDK Vector API. This is only in
+ * the JDK 17 part of the multi-release JAR. See Argon2Compression.
+ *
+ * The 16 words the permutation P works on are handled as four vectors of
+ * four longs, a (words 0-3), b (4-7), c (8-11) and d (12-15), so four
+ * BLAKE2b G functions run side by side. For the diagonal half of a round,
+ * the lanes of b, c and d are rotated so the diagonals line up.
+ *
+ * Rows are 16 consecutive words, so they load straight into vectors. A
+ * column is pairs of words 16 apart, so the columns are gathered into rows
+ * of a scratch block first, permuted as rows, and scattered back.
+ *
+ * Each half round is its own small method that loads and stores its vectors.
+ * C2 only keeps vectors in registers if everything they pass through is
+ * inlined, and one method with the whole round in it runs past the inlining
+ * budget, at which point every vector gets boxed and it's several times
+ * slower than the scalar code.
+ *
+ * @author gsexton
+ */
+final class VectorArgon2Compression extends Argon2Compression {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_256;
+    private static final long LOW_32 = 0xffffffffL;
+
+    private static final VectorShuffle<Long> ROTATE_1 = VectorShuffle.fromValues(SPECIES, 1, 2, 3, 0);
+    private static final VectorShuffle<Long> ROTATE_2 = VectorShuffle.fromValues(SPECIES, 2, 3, 0, 1);
+    private static final VectorShuffle<Long> ROTATE_3 = VectorShuffle.fromValues(SPECIES, 3, 0, 1, 2);
+
+    /**
+     * @throws UnsupportedOperationException If the CPU doesn't have 256 bit vectors. The
+     *         Vector API would still work, but much more slowly than scalar code.
+     */
+    VectorArgon2Compression() {
+        if (LongVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()) {
+            throw new UnsupportedOperationException("256 bit vectors are not supported on this CPU.");
+        }
+    }
+
+    @Override
+    String getName() {
+        return "vector";
+    }
+
+    @Override
+    void fillBlock(long[] x, int xOffset, long[] y, int yOffset, long[] out, int outOffset,
+                   boolean withXor, long[] r, long[] z) {
+        for (int i = 0; i < BLOCK_LONGS; i += 4) {
+            LongVector rv = LongVector.fromArray(SPECIES, x, xOffset + i).lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, y, yOffset + i));
+            rv.intoArray(r, i);
+            if (withXor) {
+                rv = rv.lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, out, outOffset + i));
+            }
+            rv.intoArray(z, i);
+        }
+        for (int i = 0; i < BLOCK_LONGS; i += 16) {
+            columnStep(r, i);
+            diagonalStep(r, i);
+        }
+        // Transpose the pairs of words into out, which is overwritten at the end anyway.
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                out[outOffset + 16 * i + 2 * j] = r[2 * i + 16 * j];
+                out[outOffset + 16 * i + 2 * j + 1] = r[2 * i + 16 * j + 1];
+            }
+        }
+        for (int i = 0; i < BLOCK_LONGS; i += 16) {
+            columnStep(out, outOffset + i);
+            diagonalStep(out, outOffset + i);
+        }
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                r[2 * i + 16 * j] = out[outOffset + 16 * i + 2 * j];
+                r[2 * i + 16 * j + 1] = out[outOffset + 16 * i + 2 * j + 1];
+            }
+        }
+        for (int i = 0; i < BLOCK_LONGS; i += 4) {
+            LongVector.fromArray(SPECIES, z, i).lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, r, i)).intoArray(out, outOffset + i);
+        }
+    }
+
+    /**
+     * G on the four columns of the 16 words at base.
+     */
+    private static void columnStep(long[] v, int base) {
+        LongVector a = LongVector.fromArray(SPECIES, v, base);
+        LongVector b = LongVector.fromArray(SPECIES, v, base + 4);
+        LongVector c = LongVector.fromArray(SPECIES, v, base + 8);
+        LongVector d = LongVector.fromArray(SPECIES, v, base + 12);
+
+        a = a.add(b).add(a.and(LOW_32).mul(b.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 32);
+        c = c.add(d).add(c.and(LOW_32).mul(d.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 24);
+        a = a.add(b).add(a.and(LOW_32).mul(b.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 16);
+        c = c.add(d).add(c.and(LOW_32).mul(d.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 63);
+
+        a.intoArray(v, base);
+        b.intoArray(v, base + 4);
+        c.intoArray(v, base + 8);
+        d.intoArray(v, base + 12);
+    }
+
+    /**
+     * G on the four diagonals of the 16 words at base.
+     */
+    private static void diagonalStep(long[] v, int base) {
+        LongVector a = LongVector.fromArray(SPECIES, v, base);
+        LongVector b = LongVector.fromArray(SPECIES, v, base + 4).rearrange(ROTATE_1);
+        LongVector c = LongVector.fromArray(SPECIES, v, base + 8).rearrange(ROTATE_2);
+        LongVector d = LongVector.fromArray(SPECIES, v, base + 12).rearrange(ROTATE_3);
+
+        a = a.add(b).add(a.and(LOW_32).mul(b.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 32);
+        c = c.add(d).add(c.and(LOW_32).mul(d.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 24);
+        a = a.add(b).add(a.and(LOW_32).mul(b.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 16);
+        c = c.add(d).add(c.and(LOW_32).mul(d.and(LOW_32)).lanewise(VectorOperators.LSHL, 1));
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 63);
+
+        a.intoArray(v, base);
+        b.rearrange(ROTATE_3).intoArray(v, base + 4);
+        c.rearrange(ROTATE_2).intoArray(v, base + 8);
+        d.rearrange(ROTATE_1).intoArray(v, base + 12);
+    }
+}
@@ -1,21 +1,88 @@
 package authdemo;
 import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
 
 import com.mhsoftware.authdemo.*;
+import com.password4j.Password;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import io.cucumber.java.After;
 import io.cucumber.java.en.And;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class StepDefinitions {
 
     private boolean result;
 
+    private AccountImporter.ImportResult importResult;
+
+    private int bulkCount;
+
+    private long bulkWrites;
+
+    private long importWrites;
+
+    private String hashResult;
+
+    private File policyFile;
+
+    private PolicyFileWatcher policyWatcher;
+
+    private AuthenticationProvider policyProvider;
+
+    private long policyVersion;
+
+    private int mixedPolicies;
+
+    private int pipelineSuccesses;
+
+    private long pipelineWrites;
+
+    private TenantManager tenants;
+
+    private boolean tenantPolicy;
+
+    private int demoted;
+
+    private LoadGenerator.Report loadReport;
+
+    private AccountStore primaryStore;
+
+    private AccountStore replicaStore;
+
+    private ReplicationServer replicationServer;
+
+    private ReplicationClient replicationClient;
+
+    private long auditSequence = AuditLog.getInstance().getPublishedCount();
+
+    /** The sequence numbers start over in each run, and the file is appended to, so the time is checked too. */
+    private long auditTime = System.currentTimeMillis();
+
     private PasswordPolicyValidator getDefaultPolicy() {
         Map<String, Object> passwordPolicy = new HashMap<>();
         passwordPolicy.put("minLength", Integer.valueOf(8));
@@ -80,6 +147,13 @@ public class StepDefinitions {
         }
     }
 
+    @And("the bad login count for user {string} will be {int}.")
+    public void checkBadLoginCount(String userName, int count) {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNotNull(account);
+        assertEquals(count, account.badLoginCount);
+    }
+
     @Given("user {string} exists in the credential system.")
     public void confirmUserPresent(String userName) {
         UserAccount account = AccountStore.getInstance().getAccount(userName);
@@ -91,7 +165,12 @@ public class StepDefinitions {
         UserAccount account = AccountStore.getInstance().getAccount(userName);
         assertNotNull(account);
         AuthenticationProvider ap = new AuthenticationProviderImpl(getDefaultPolicy());
-        ap.verifyLoginPreconditions(account);
+        try {
+            ap.verifyLoginPreconditions(account);
+        } catch (AuthenticationException ae) {
+            result = false;
+            return;
+        }
         try {
             ap.changePassword(account, password);
             result = true;
@@ -117,12 +196,886 @@ public class StepDefinitions {
 
     @Given("the store file was deleted")
     public void deleteStoreFile() {
-        File f = new File(AccountStore.STORE_FILE);
+        File f = AccountStore.getInstance().getStoreFile();
         if (f.exists()) {
             result = f.delete();
         } else {
             result = true;
         }
+        File cold = new File(f.getPath() + ".cold");
+        if (cold.exists()) {
+            result &= cold.delete();
+        }
+    }
+
+    @When("I create a user named {string} with full name {string} and email {string}")
+    public void createAUserWithEmail(String userName, String fullName, String emailAddress) throws PasswordValidationException {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNull(account);
+        account = new UserAccount();
+        account.userName = userName;
+        account.fullName = fullName;
+        account.emailAddress = emailAddress;
+        account.enabled = true;
+        AuthenticationProvider ap = new AuthenticationProviderImpl(getDefaultPolicy());
+        ap.changePassword(account, userName + "-password");
+        AccountStore.getInstance().addAccount(account);
+    }
+
+    @When("I change the email address for user {string} to {string}")
+    public void changeEmailAddress(String userName, String emailAddress) {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNotNull(account);
+        account.emailAddress = emailAddress;
+        AccountStore.getInstance().updateAccount(account);
+    }
+
+    private static String userNames(Collection<UserAccount> accounts) {
+        return accounts.stream().map(a -> a.userName).sorted().collect(Collectors.joining(","));
+    }
+
+    @Then("searching for email {string} finds {string}")
+    public void checkEmailSearch(String emailAddress, String expected) {
+        assertEquals(expected, userNames(AccountStore.getInstance().getAccountsByEmail(emailAddress)));
+    }
+
+    @Then("searching for email {string} finds nothing")
+    public void checkEmailSearchEmpty(String emailAddress) {
+        assertTrue(AccountStore.getInstance().getAccountsByEmail(emailAddress).isEmpty());
+    }
+
+    @Then("searching for prefix {string} finds {string}")
+    public void checkPrefixSearch(String prefix, String expected) {
+        assertEquals(expected, userNames(AccountStore.getInstance().findAccountsByPrefix(prefix, 20)));
+    }
+
+    @Then("searching for prefix {string} finds nothing")
+    public void checkPrefixSearchEmpty(String prefix) {
+        assertTrue(AccountStore.getInstance().findAccountsByPrefix(prefix, 20).isEmpty());
+    }
+
+    @When("I verify the password {string} for user {string} {int} times with a limit of {int} bad logins")
+    public void verifyPasswordRepeatedly(String password, String userName, int times, int maxBadLogins) {
+        Map<String, Object> policy = new HashMap<>();
+        policy.put("minLength", Integer.valueOf(8));
+        policy.put("maxBadLogins", Integer.valueOf(maxBadLogins));
+        PasswordPolicyValidator.addPolicy("lockout", policy);
+        AuthenticationProvider ap = new AuthenticationProviderImpl(PasswordPolicyValidator.getInstance("lockout"));
+        for (int i = 0; i < times; i++) {
+            UserAccount account = AccountStore.getInstance().getAccount(userName);
+            assertNotNull(account);
+            try {
+                result = ap.verifyPassword(account, password);
+            } catch (AuthenticationException ae) {
+                result = false;
+            }
+            AccountStore.getInstance().updateAccount(account);
+        }
+    }
+
+    @Then("the user {string} will be disabled")
+    public void checkDisabled(String userName) {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNotNull(account);
+        assertFalse(account.enabled);
+    }
+
+    @Then("the audit log will contain {string} for user {string}")
+    public void checkAuditLog(String eventType, String userName) throws IOException {
+        assertTrue(countAuditEvents(eventType, userName) > 0, "No " + eventType + " audit event was found for " + userName);
+    }
+
+    @Then("the audit log will not contain {string} for user {string}")
+    public void checkNotInAuditLog(String eventType, String userName) throws IOException {
+        assertEquals(0, countAuditEvents(eventType, userName), "Unexpected " + eventType + " audit event for " + userName);
+    }
+
+    @Then("the audit log will contain {int} {string} event(s) for user {string}")
+    public void checkAuditEventCount(int count, String eventType, String userName) throws IOException {
+        assertEquals(count, countAuditEvents(eventType, userName), eventType + " audit events for " + userName);
+    }
+
+    private long countAuditEvents(String eventType, String userName) throws IOException {
+        AuditLog log = AuditLog.getInstance();
+        assertTrue(log.flush(5000), "The audit writer didn't catch up.");
+        return Files.readAllLines(log.getFile().toPath(), StandardCharsets.UTF_8).stream()
+            .filter(line -> Long.parseLong(line.replaceAll(".*\"seq\":(\\d+).*", "$1")) >= auditSequence)
+            .filter(line -> Instant.parse(line.replaceAll(".*\"time\":\"([^\"]+)\".*", "$1")).toEpochMilli() >= auditTime)
+            .filter(line -> line.contains("\"event\":\"" + eventType + "\"") && line.contains("\"userName\":\"" + userName + "\""))
+            .count();
+    }
+
+    @When("I import these CSV accounts:")
+    public void importCsv(String content) throws IOException {
+        AccountImporter importer = new AccountImporter(getDefaultPolicy(), ForkJoinPool.commonPool());
+        importResult = importer.importAccounts(new StringReader(content), true);
+    }
+
+    @When("I import these JSON-lines accounts:")
+    public void importJsonLines(String content) throws IOException {
+        AccountImporter importer = new AccountImporter(getDefaultPolicy(), ForkJoinPool.commonPool());
+        long writes = AccountStore.getInstance().getWriteCount();
+        importResult = importer.importAccounts(new StringReader(content), false);
+        importWrites = AccountStore.getInstance().getWriteCount() - writes;
+    }
+
+    @Then("the import wrote the store file {int} time(s)")
+    public void checkImportWrites(int writes) {
+        assertEquals(writes, importWrites);
+    }
+
+    @Then("{int} accounts were imported with {int} errors")
+    public void checkImport(int imported, int errors) {
+        assertEquals(imported, importResult.imported);
+        assertEquals(errors, importResult.errors.size(), importResult.errors.toString());
+    }
+
+    @Then("the user {string} will be enabled")
+    public void checkEnabled(String userName) {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNotNull(account);
+        assertTrue(account.enabled);
+    }
+
+    private static Map<String, String> criteriaOptions(String criteria) {
+        Map<String, String> options = new HashMap<>();
+        for (String criterion: criteria.split(" ")) {
+            String[] halves = criterion.split("=");
+            options.put(halves[0], halves.length == 2 ? halves[1] : null);
+        }
+        return options;
+    }
+
+    private void bulkOperation(String action, String criteria, boolean dryRun) {
+        AccountFilter filter = AccountFilter.fromOptions(criteriaOptions(criteria));
+        AccountStore store = AccountStore.getInstance();
+        long writes = store.getWriteCount();
+        switch (action) {
+        case "disable":
+            bulkCount = store.bulkUpdate(filter, account -> account.enabled = false, dryRun);
+            break;
+        case "delete":
+            bulkCount = store.bulkDelete(filter, dryRun);
+            break;
+        default:
+            fail("Unknown bulk action " + action);
+        }
+        bulkWrites = store.getWriteCount() - writes;
+    }
+
+    @When("I bulk {string} the accounts matching {string}")
+    public void bulkOperation(String action, String criteria) {
+        bulkOperation(action, criteria, false);
+    }
+
+    @When("I bulk {string} the accounts matching {string} as a dry run")
+    public void bulkOperationDryRun(String action, String criteria) {
+        bulkOperation(action, criteria, true);
+        assertEquals(0, bulkWrites);
+    }
+
+    @Then("the bulk criteria {string} are rejected")
+    public void checkCriteriaRejected(String criteria) {
+        assertThrows(IllegalArgumentException.class, () -> AccountFilter.fromOptions(criteriaOptions(criteria)));
+    }
+
+    @Then("{int} accounts matched the bulk operation")
+    public void checkBulkCount(int count) {
+        assertEquals(count, bulkCount);
+    }
+
+    @Then("the store file was written {int} time by the bulk operation")
+    public void checkBulkWrites(int writes) {
+        assertEquals(writes, bulkWrites);
+    }
+
+    @When("{int} logins for user {string} with password {string} go through the login pipeline")
+    public void pipelineLogins(int count, String userName, String password) throws Exception {
+        pipelineLogins(count, userName, password, new AuthenticationProviderImpl(getDefaultPolicy()));
+    }
+
+    @When("{int} logins for user {string} with password {string} go through the login pipeline with a limit of {int} bad logins")
+    public void pipelineLogins(int count, String userName, String password, int maxBadLogins) throws Exception {
+        Map<String, Object> policy = new HashMap<>();
+        policy.put("minLength", Integer.valueOf(8));
+        policy.put("maxBadLogins", Integer.valueOf(maxBadLogins));
+        PasswordPolicyValidator.addPolicy("lockout", policy);
+        pipelineLogins(count, userName, password, new AuthenticationProviderImpl(PasswordPolicyValidator.getInstance("lockout")));
+    }
+
+    private void pipelineLogins(int count, String userName, String password, AuthenticationProviderImpl ap) throws Exception {
+        AccountStore store = AccountStore.getInstance();
+        long writes = store.getWriteCount();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        try (LoginPipeline pipeline = new LoginPipeline(store, ap, 2, LoginPipeline.DEFAULT_MAX_BATCH)) {
+            for (int i = 0; i < count; i++) {
+                results.add(pipeline.login(userName, password));
+            }
+            pipelineSuccesses = 0;
+            for (CompletableFuture<Boolean> login: results) {
+                if (login.get()) {
+                    pipelineSuccesses++;
+                }
+            }
+        }
+        pipelineWrites = store.getWriteCount() - writes;
+    }
+
+    @When("{int} pipeline logins each for {string} with password {string} and {string} with password {string} are in flight when {string} is deleted")
+    public void pipelineLoginsWithDelete(int count, String userName1, String password1, String userName2, String password2,
+                                         String deletedUserName) throws Exception {
+        AccountStore store = AccountStore.getInstance();
+        CountDownLatch checking = new CountDownLatch(2 * count);
+        CountDownLatch deleted = new CountDownLatch(1);
+        // The password checks wait until the account is deleted, so every login has read its account by then.
+        AuthenticationProviderImpl ap = new AuthenticationProviderImpl(getDefaultPolicy()) {
+            @Override
+            public boolean checkPassword(UserAccount user, String password) {
+                checking.countDown();
+                try {
+                    deleted.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.checkPassword(user, password);
+            }
+        };
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        try (LoginPipeline pipeline = new LoginPipeline(store, ap, 2 * count, LoginPipeline.DEFAULT_MAX_BATCH)) {
+            for (int i = 0; i < count; i++) {
+                results.add(pipeline.login(userName1, password1));
+                results.add(pipeline.login(userName2, password2));
+            }
+            assertTrue(checking.await(10, TimeUnit.SECONDS), "The logins didn't reach the password check.");
+            UserAccount account = store.getAccount(deletedUserName);
+            assertNotNull(account);
+            assertTrue(store.deleteAccount(account.userID));
+            deleted.countDown();
+            pipelineSuccesses = 0;
+            for (CompletableFuture<Boolean> login: results) {
+                if (login.get()) {
+                    pipelineSuccesses++;
+                }
+            }
+        }
+    }
+
+    @Then("{int} of the pipeline logins succeeded")
+    public void checkPipelineSuccesses(int count) {
+        assertEquals(count, pipelineSuccesses);
+    }
+
+    @Then("the login pipeline wrote the store file fewer than {int} times")
+    public void checkPipelineWrites(int writes) {
+        assertTrue(pipelineWrites > 0 && pipelineWrites < writes, "The store file was written " + pipelineWrites + " times.");
+    }
+
+    @Then("the store will be read from the {word}")
+    public void checkStoreSource(String source) {
+        AccountStore store = AccountStore.getInstance();
+        store.resetStore();
+        store.getAccounts();
+        assertEquals("snapshot".equals(source), store.wasLoadedFromSnapshot());
+    }
+
+    @Given("a primary store serving replicas")
+    public void startPrimary() throws IOException {
+        File f = new File("target/replication-primary.yaml");
+        for (String suffix: new String[] { "", ".snapshot", ".cold" }) {
+            new File(f.getPath() + suffix).delete();
+        }
+        primaryStore = new AccountStore(f);
+        replicationServer = new ReplicationServer(primaryStore, InetAddress.getLoopbackAddress(), 0, 1000);
+        replicationServer.start();
+    }
+
+    @When("I add user {string} with password {string} to the primary")
+    public void addToPrimary(String userName, String password) throws PasswordValidationException {
+        UserAccount account = new UserAccount();
+        account.userName = userName;
+        account.emailAddress = userName + "@bikinibottom.org";
+        account.enabled = true;
+        new AuthenticationProviderImpl(getDefaultPolicy()).changePassword(account, password);
+        primaryStore.addAccount(account);
+    }
+
+    @When("I delete user {string} from the primary")
+    public void deleteFromPrimary(String userName) {
+        UserAccount account = primaryStore.getAccount(userName);
+        assertNotNull(account);
+        assertTrue(primaryStore.deleteAccount(account.userID));
+    }
+
+    @When("a replica connects to the primary")
+    public void startReplica() {
+        replicaStore = new AccountStore(new File("target/replication-replica.yaml"));
+        replicationClient = new ReplicationClient(replicaStore, InetAddress.getLoopbackAddress().getHostAddress(), replicationServer.getPort());
+        replicationClient.start();
+    }
+
+    private static List<String> describeAccounts(AccountStore store) {
+        // getAccounts() is a view of the store's list, and the replication threads change it.
+        synchronized (store) {
+            return store.getAccounts().stream().map(UserAccount::toString).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Then("within {int} seconds the replica has the same {int} accounts as the primary")
+    public void checkReplica(int seconds, int accounts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        while (System.currentTimeMillis() < deadline && !describeAccounts(replicaStore).equals(describeAccounts(primaryStore))) {
+            Thread.sleep(20);
+        }
+        // toString() has every field, including the password hash and dates.
+        assertEquals(describeAccounts(primaryStore), describeAccounts(replicaStore));
+        assertEquals(accounts, replicaStore.getAccounts().size());
+    }
+
+    @Then("the replica has received {int} snapshot(s)")
+    public void checkSnapshots(int snapshots) {
+        assertEquals(snapshots, replicationClient.getSnapshotCount());
+    }
+
+    @When("I log in to the replica as {string} with password {string} and a limit of {int} bad logins")
+    public void loginToReplica(String userName, String password, int maxBadLogins) {
+        Map<String, Object> policy = new HashMap<>();
+        policy.put("minLength", Integer.valueOf(8));
+        policy.put("maxBadLogins", Integer.valueOf(maxBadLogins));
+        PasswordPolicyValidator.addPolicy("lockout", policy);
+        result = App.login(replicaStore, new AuthenticationProviderImpl(PasswordPolicyValidator.getInstance("lockout")), userName, password);
+    }
+
+    @Then("user {string} on the replica is enabled with no bad logins")
+    public void checkReplicaAccount(String userName) {
+        UserAccount account = replicaStore.getAccount(userName);
+        assertNotNull(account);
+        assertTrue(account.enabled);
+        assertEquals(0, account.badLoginCount);
+        assertNull(account.lastBadSignin);
+    }
+
+    @Then("adding user {string} to the replica fails")
+    public void addToReplicaFails(String userName) {
+        UserAccount account = new UserAccount();
+        account.userName = userName;
+        assertThrows(IllegalStateException.class, () -> replicaStore.addAccount(account));
+    }
+
+    @When("the store file {string} contains:")
+    public void writeStoreFile(String fileName, String content) throws IOException {
+        File f = new File(fileName);
+        new File(fileName + ".snapshot").delete();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Then("the store file {string} is read by the {word} loader, with {int} accounts and nextUserID {int}")
+    public void checkStoreLoader(String fileName, String loader, int accounts, int nextUserID) {
+        AccountStore store = new AccountStore(new File(fileName));
+        assertEquals(accounts, store.getAccounts().size());
+        assertFalse(store.wasLoadedFromSnapshot());
+        assertEquals("yaml".equals(loader), store.wasLoadedWithYaml());
+        assertEquals(nextUserID, store.copyStore().nextUserID);
+        UserAccount sandy = store.getAccount("sandy");
+        assertNotNull(sandy);
+        assertEquals("Sandy Cheeks", sandy.fullName);
+        assertEquals(2, sandy.badLoginCount);
+        assertNotNull(sandy.lastSignin);
+        assertEquals(sandy.lastSignin, sandy.pwdChangeDate);
+    }
+
+    @When("I change {string} to {string} in the store file, keeping its time and length")
+    public void editStoreFile(String from, String to) throws IOException {
+        assertEquals(from.length(), to.length());
+        File f = AccountStore.getInstance().getStoreFile();
+        long modified = f.lastModified();
+        String yaml = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+        assertTrue(yaml.contains(from));
+        Files.write(f.toPath(), yaml.replace(from, to).getBytes(StandardCharsets.UTF_8));
+        assertTrue(f.setLastModified(modified));
+    }
+
+    @Then("the full name of user {string} will be {string}")
+    public void checkFullName(String userName, String fullName) {
+        UserAccount account = AccountStore.getInstance().getAccount(userName);
+        assertNotNull(account);
+        assertEquals(fullName, account.fullName);
+    }
+
+    @When("I run a load test with {int} accounts, {int} threads and {int} operations")
+    public void runLoadTest(int accounts, int threads, int operations) throws Exception {
+        getDefaultPolicy();
+        Map<String, String> options = new HashMap<>();
+        options.put("accounts", String.valueOf(accounts));
+        options.put("threads", String.valueOf(threads));
+        options.put("operations", String.valueOf(operations));
+        options.put("storeFile", "target/loadtest-account-info.yaml");
+        AccountStore store = AccountStore.getInstance();
+        File storeFile = store.getStoreFile();
+        try {
+            LoadGenerator generator = new LoadGenerator(options);
+            generator.seed();
+            loadReport = generator.measure();
+        } finally {
+            store.setStoreFile(storeFile);
+        }
+    }
+
+    @Then("{int} load test operations ran with an error rate of {int}%")
+    public void checkLoadTest(int operations, int errorPercent) {
+        assertEquals(operations, loadReport.getCount());
+        assertEquals(errorPercent, loadReport.getErrorRate() * 100, 0.001);
+        assertEquals(4, loadReport.results.size());
+        assertTrue(loadReport.storeWrites > 0, "The load test didn't write the store file.");
+    }
+
+    @Given("a new tenant directory with a limit of {int} accounts per tenant")
+    public void newTenantDirectory(int maxAccounts) throws IOException {
+        newTenantDirectory(maxAccounts, 1, 1);
+    }
+
+    @Given("a new tenant directory with {int} hashing threads and a limit of {int} per tenant")
+    public void newTenantDirectoryWithHashThreads(int hashThreads, int maxHashThreads) throws IOException {
+        newTenantDirectory(0, hashThreads, maxHashThreads);
+    }
+
+    private void newTenantDirectory(int maxAccounts, int hashThreads, int maxHashThreads) throws IOException {
+        File dir = new File("target/tenant-test");
+        if (dir.exists()) {
+            Files.walk(dir.toPath()).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+        getDefaultPolicy();
+        tenants = new TenantManager(dir, 0, maxAccounts, hashThreads, maxHashThreads);
+    }
+
+    @Given("a password policy named {string} requiring {int} characters")
+    public void namedPolicy(String policyName, int minLength) {
+        Map<String, Object> policy = new HashMap<>();
+        policy.put("minLength", Integer.valueOf(minLength));
+        PasswordPolicyValidator.addPolicy(policyName, policy);
+        tenantPolicy = true;
+    }
+
+    private void addTenantUser(String userName, String password, String tenantName) throws PasswordValidationException {
+        TenantManager.Tenant tenant = tenants.getTenant(tenantName);
+        UserAccount account = new UserAccount();
+        account.userName = userName;
+        account.enabled = true;
+        tenant.authenticationProvider.changePassword(account, password);
+        tenant.store.addAccount(account);
+    }
+
+    @Given("user {string} last signed in {int} days ago")
+    public void setLastSignin(String userName, int days) {
+        AccountStore store = AccountStore.getInstance();
+        UserAccount account = store.getAccount(userName);
+        assertNotNull(account);
+        Date when = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        account.lastSignin = when;
+        account.pwdChangeDate = when;
+        store.updateAccount(account);
+    }
+
+    @Given("user {string} last signed in {int} days ago and changed their password {int} days ago")
+    public void setLastSigninAndPasswordChange(String userName, int signinDays, int passwordDays) {
+        AccountStore store = AccountStore.getInstance();
+        UserAccount account = store.getAccount(userName);
+        assertNotNull(account);
+        account.lastSignin = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(signinDays));
+        account.pwdChangeDate = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(passwordDays));
+        store.updateAccount(account);
+    }
+
+    @When("accounts not used for {int} days are demoted in batches of {int}")
+    public void demoteInactive(int days, int batchSize) {
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        demoted = AccountStore.getInstance().demoteAllInactive(cutoff, batchSize);
+    }
+
+    @Then("{int} accounts were demoted")
+    public void checkDemoted(int count) {
+        assertEquals(count, demoted);
+    }
+
+    @Then("there are {int} hot and {int} cold accounts")
+    public void checkTiers(int hot, int cold) {
+        AccountStore store = AccountStore.getInstance();
+        assertEquals(hot, store.getHotCount());
+        assertEquals(cold, store.getColdCount());
+        assertEquals(hot + cold, store.getAccounts().size());
+    }
+
+    @When("I add user {string} with password {string} to tenant {string}")
+    public void addTenantAccount(String userName, String password, String tenantName) throws PasswordValidationException {
+        addTenantUser(userName, password, tenantName);
+    }
+
+    @Then("adding user {string} with password {string} to tenant {string} goes over the account limit")
+    public void addTenantAccountOverLimit(String userName, String password, String tenantName) {
+        IllegalStateException ise = assertThrows(IllegalStateException.class, () -> addTenantUser(userName, password, tenantName));
+        assertTrue(ise.getMessage().contains("is limited to"), ise.getMessage());
+    }
+
+    @Then("adding user {string} with password {string} to tenant {string} fails the password policy")
+    public void addTenantAccountFailsPolicy(String userName, String password, String tenantName) {
+        assertThrows(PasswordValidationException.class, () -> addTenantUser(userName, password, tenantName));
+    }
+
+    @When("user {string} in tenant {string} has password {string} hashed with {int} KiB of memory")
+    public void rehashTenantUser(String userName, String tenantName, String password, int memory) {
+        // A slow hash, so the password checks overlap.
+        AccountStore store = tenants.getStore(tenantName);
+        UserAccount account = store.getAccount(userName);
+        assertNotNull(account);
+        account.password = Argon2.hash(password, "tenant-hash-test".getBytes(StandardCharsets.UTF_8), memory, 2, 1, Argon2.DEFAULT_HASH_LENGTH);
+        store.updateAccount(account);
+    }
+
+    @Then("tenant {string} had at most {int} password check(s) running at once")
+    public void checkTenantPeakHashes(String tenantName, int maxHashThreads) {
+        int peak = tenants.getTenant(tenantName).pipeline.getPeakHashCount();
+        assertTrue(peak > 0 && peak <= maxHashThreads, "Tenant " + tenantName + " had " + peak + " password checks running at once.");
+    }
+
+    @Then("tenant {string} has {int} accounts")
+    public void checkTenantAccounts(String tenantName, int count) {
+        assertEquals(count, tenants.getStore(tenantName).getAccounts().size());
+    }
+
+    @Then("{int} of {int} logins for user {string} with password {string} to tenant {string} succeed")
+    public void tenantLogins(int successes, int count, String userName, String password, String tenantName) throws Exception {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(tenants.login(tenantName, userName, password));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<Boolean> login: results) {
+            if (login.get()) {
+                succeeded++;
+            }
+        }
+        assertEquals(successes, succeeded);
+    }
+
+    @Then("{int} of {int} logins for user {string} with password {string} to the default store succeed")
+    public void defaultStoreLogins(int successes, int count, String userName, String password) throws Exception {
+        int succeeded = 0;
+        for (int i = 0; i < count; i++) {
+            UserAccount account = AccountStore.getInstance().getAccount(userName);
+            if (account != null && new AuthenticationProviderImpl(getDefaultPolicy()).checkPassword(account, password)) {
+                succeeded++;
+            }
+        }
+        assertEquals(successes, succeeded);
+    }
+
+    @When("the idle tenants are unloaded")
+    public void unloadIdleTenants() {
+        assertTrue(tenants.unloadIdle(0) > 0);
+    }
+
+    @Then("tenant {string} is loaded")
+    public void checkTenantLoaded(String tenantName) {
+        assertTrue(tenants.getTenant(tenantName).store.isLoaded());
+    }
+
+    @Then("tenant {string} is not loaded")
+    public void checkTenantNotLoaded(String tenantName) {
+        assertFalse(tenants.getTenant(tenantName).store.isLoaded());
+    }
+
+    @Then("the tenant name {string} is rejected")
+    public void checkTenantNameRejected(String tenantName) {
+        assertThrows(IllegalArgumentException.class, () -> tenants.getTenant(tenantName));
+    }
+
+    @When("I back up the store to {string}")
+    public void backupStore(String fileName) throws IOException {
+        StoreBackup.backup(AccountStore.getInstance(), new File(fileName));
+    }
+
+    @When("I back up the store to {string} while {int} logins for user {string} with password {string} run")
+    public void backupDuringLogins(String fileName, int count, String userName, String password) throws Exception {
+        AccountStore store = AccountStore.getInstance();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        try (LoginPipeline pipeline = new LoginPipeline(store, new AuthenticationProviderImpl(getDefaultPolicy()), 2, 8)) {
+            for (int i = 0; i < count; i++) {
+                results.add(pipeline.login(userName, password));
+            }
+            StoreBackup.backup(store, new File(fileName));
+            pipelineSuccesses = 0;
+            for (CompletableFuture<Boolean> login: results) {
+                if (login.get()) {
+                    pipelineSuccesses++;
+                }
+            }
+        }
+    }
+
+    @Then("the backup {string} is good and has {int} accounts")
+    public void checkBackup(String fileName, int accounts) throws IOException {
+        assertEquals(accounts, StoreBackup.verify(new File(fileName)).accounts);
+    }
+
+    @When("I restore the store from {string}")
+    public void restoreStore(String fileName) throws IOException {
+        StoreBackup.restore(AccountStore.getInstance(), new File(fileName));
+    }
+
+    @When("I damage byte {int} of {string}")
+    public void damageFile(int offset, String fileName) throws IOException {
+        File f = new File(fileName);
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        bytes[offset] ^= 0x55;
+        Files.write(f.toPath(), bytes);
+    }
+
+    @Then("the backup {string} is rejected")
+    public void checkBackupRejected(String fileName) {
+        assertThrows(IOException.class, () -> StoreBackup.verify(new File(fileName)));
+    }
+
+    @Then("restoring the store from {string} fails")
+    public void checkRestoreFails(String fileName) {
+        assertThrows(IOException.class, () -> StoreBackup.restore(AccountStore.getInstance(), new File(fileName)));
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    private static String toHex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte value: b) {
+            sb.append(String.format("%02x", value));
+        }
+        return sb.toString();
+    }
+
+    @When("I compute a {int} byte Argon2id tag with m={int}, t={int}, p={int} for password {string}, salt {string}, secret {string} and data {string}")
+    public void computeArgon2Tag(int length, int memory, int iterations, int parallelism, String password, String salt, String secret, String data) {
+        hashResult = toHex(Argon2.hashRaw(fromHex(password), fromHex(salt), fromHex(secret), fromHex(data), memory, iterations, parallelism, length));
+    }
+
+    @Then("the scalar and vector compression functions give the same tags for {int} random inputs")
+    public void compareCompression(int count) {
+        String previous = Argon2.getCompression();
+        try {
+            assumeTrue(Argon2.useCompression("vector"), "The vector compression function isn't available on this runtime.");
+            Random random = new Random(count);
+            for (int i = 0; i < count; i++) {
+                byte[] password = new byte[random.nextInt(64)], salt = new byte[8 + random.nextInt(24)];
+                random.nextBytes(password);
+                random.nextBytes(salt);
+                int memory = 8 + random.nextInt(256), iterations = 1 + random.nextInt(4), parallelism = 1 + random.nextInt(4);
+                Argon2.useCompression("scalar");
+                String scalar = toHex(Argon2.hashRaw(password, salt, null, null, memory, iterations, parallelism, 32));
+                Argon2.useCompression("vector");
+                String vector = toHex(Argon2.hashRaw(password, salt, null, null, memory, iterations, parallelism, 32));
+                assertEquals(scalar, vector, "m=" + memory + ", t=" + iterations + ", p=" + parallelism);
+            }
+        } finally {
+            Argon2.useCompression(previous);
+        }
+    }
+
+    @Then("the hash will be {string}")
+    public void checkHash(String expected) {
+        assertEquals(expected, hashResult);
+    }
+
+    @When("I hash the password {string} with {word}")
+    public void hashPassword(String password, String engine) {
+        switch (engine) {
+        case "Argon2":
+            hashResult = Argon2.hash(password);
+            break;
+        case "password4j":
+            hashResult = Password.hash(password).addRandomSalt(16).withArgon2().getResult();
+            break;
+        default:
+            fail("Unknown hash engine " + engine);
+        }
+    }
+
+    @Then("{word} will accept the password {string}")
+    public void checkPasswordAccepted(String engine, String password) {
+        assertTrue(checkPassword(engine, password, hashResult), engine + " rejected " + hashResult);
+    }
+
+    @Then("{word} will reject the password {string}")
+    public void checkPasswordRejected(String engine, String password) {
+        assertFalse(checkPassword(engine, password, hashResult), engine + " accepted " + hashResult);
+    }
+
+    @Then("Argon2 will accept the password {string} for the hash {string}")
+    public void checkPasswordForHash(String password, String hash) {
+        assertTrue(Argon2.verify(password, hash));
+    }
+
+    @Then("Argon2 will refuse to check the password {string} for the hash {string}")
+    public void checkHashRefused(String password, String hash) {
+        IllegalArgumentException iae = assertThrows(IllegalArgumentException.class, () -> Argon2.verify(password, hash));
+        assertTrue(iae.getMessage().contains("more than the limit"), iae.getMessage());
+    }
+
+    private boolean checkPassword(String engine, String password, String hash) {
+        switch (engine) {
+        case "Argon2":
+            return Argon2.verify(password, hash);
+        case "password4j":
+            return Password.check(password, hash).withArgon2();
+        default:
+            fail("Unknown hash engine " + engine);
+            return false;
+        }
+    }
+
+    private void writePolicyFile(String contents) throws IOException {
+        File tmp = new File(policyFile.getPath() + ".tmp");
+        Files.write(tmp.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), policyFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String policyYaml(int minLength, int maxBadLogins) {
+        return "default:\n  minLength: " + minLength + "\nlockout:\n  minLength: " + minLength + "\n  maxBadLogins: " + maxBadLogins + "\n";
+    }
+
+    @Given("a password policy file with a minimum length of {int} and a lockout after {int} bad logins")
+    public void createPolicyFile(int minLength, int maxBadLogins) throws IOException {
+        policyFile = Files.createTempFile("authdemo-policy", ".yaml").toFile();
+        writePolicyFile(policyYaml(minLength, maxBadLogins));
+        policyWatcher = new PolicyFileWatcher(policyFile);
+        policyProvider = new AuthenticationProviderImpl(getDefaultPolicy());
+    }
+
+    @When("I load the password policy file")
+    public void loadPolicyFile() throws IOException {
+        policyVersion = policyWatcher.load();
+    }
+
+    @When("I change the password policy file to {string}")
+    public void changePolicyFile(String contents) throws IOException {
+        policyVersion = PasswordPolicyValidator.getVersion();
+        writePolicyFile(contents.replace("\\n", "\n"));
+    }
+
+    @Then("loading the password policy file fails")
+    public void loadPolicyFileFails() {
+        assertThrows(IllegalArgumentException.class, () -> policyWatcher.load());
+    }
+
+    @Then("the password policy version has not changed")
+    public void checkPolicyVersionUnchanged() {
+        assertEquals(policyVersion, PasswordPolicyValidator.getVersion());
+    }
+
+    @Then("the {word} policy requires {int} characters and locks out after {int} bad logins")
+    public void checkPolicy(String policyName, int minLength, int maxBadLogins) {
+        PasswordPolicyValidator validator = PasswordPolicyValidator.getInstance("default".equals(policyName) ? null : policyName);
+        assertEquals(Integer.valueOf(minLength), validator.getPolicy().get("minLength"));
+        if (maxBadLogins > 0) {
+            assertEquals(Integer.valueOf(maxBadLogins), validator.getPolicy().get("maxBadLogins"));
+        }
+    }
+
+    @Then("a password of {int} characters is {word} by the authentication provider")
+    public void checkProviderPassword(int length, String outcome) {
+        String password = new String(new char[length]).replace('\0', 'x');
+        try {
+            policyProvider.getPasswordPolicyValidator().validatePassword(password);
+            assertEquals("accepted", outcome);
+        } catch (PasswordValidationException pve) {
+            assertEquals("rejected", outcome, pve.toString());
+        }
+    }
+
+    @When("I watch the password policy file")
+    public void watchPolicyFile() throws IOException {
+        policyWatcher.start();
+    }
+
+    @Then("within {int} seconds the default policy requires {int} characters")
+    public void waitForPolicy(int seconds, int minLength) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        Integer expected = Integer.valueOf(minLength);
+        while (!expected.equals(PasswordPolicyValidator.getDefaultPolicyValidator().getPolicy().get("minLength"))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, PasswordPolicyValidator.getDefaultPolicyValidator().getPolicy().get("minLength"));
+        assertTrue(PasswordPolicyValidator.getVersion() > policyVersion);
+    }
+
+    @When("{int} threads check the lockout policy while it is reloaded {int} times")
+    public void checkPoliciesWhileReloading(int threads, int reloads) throws Exception {
+        // Each version of the file has the same value for both settings, so a mix would show up as a difference.
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger mixed = new AtomicInteger();
+        AtomicInteger checks = new AtomicInteger();
+        AuthenticationProvider provider = new AuthenticationProviderImpl(PasswordPolicyValidator.getInstance("lockout"));
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread reader = new Thread(() -> {
+                do {
+                    Map<String, Object> policy = provider.getPasswordPolicyValidator().getPolicy();
+                    if (!policy.get("minLength").equals(policy.get("maxBadLogins"))) {
+                        mixed.incrementAndGet();
+                    }
+                    checks.incrementAndGet();
+                } while (!done.get());
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (int i = 0; i < reloads; i++) {
+            writePolicyFile(policyYaml(8 + i % 8, 8 + i % 8));
+            policyWatcher.load();
+        }
+        done.set(true);
+        for (Thread reader: readers) {
+            reader.join();
+        }
+        assertTrue(checks.get() > 0);
+        mixedPolicies = mixed.get();
+    }
+
+    @Then("no thread saw a mix of two policy versions")
+    public void checkNoMixedPolicies() {
+        assertEquals(0, mixedPolicies);
     }
-}
 
+    @After
+    public void closeTenants() throws InterruptedException {
+        if (tenants != null) {
+            tenants.close();
+        }
+        if (tenantPolicy) {
+            // Only the default policy the other scenarios expect.
+            PasswordPolicyValidator.replacePolicies(Collections.singletonMap(null, getDefaultPolicy().getPolicy()));
+        }
+    }
+
+    @After
+    public void stopReplication() throws IOException {
+        if (replicationClient != null) {
+            replicationClient.stop();
+        }
+        if (replicationServer != null) {
+            replicationServer.stop();
+        }
+    }
+
+    @After
+    public void stopPolicyWatcher() throws IOException {
+        if (policyWatcher != null) {
+            policyWatcher.stop();
+            policyFile.delete();
+            // Put back the default policy the other scenarios expect.
+            getDefaultPolicy();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package performance;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.mhsoftware.authdemo.*;
+
+import io.cucumber.java.After;
+import io.cucumber.java.en.Given;
+import io.cucumber.java.en.Then;
+import io.cucumber.java.en.When;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Steps for the performance scenarios.
+ *
+ * The store is seeded and the operations are run by LoadGenerator, so the
+ * scenarios measure the same workload as --loadTest. The scenarios use their
+ * own store file so the default store isn't touched.
+ */
+public class PerformanceStepDefinitions {
+
+    private static final String STORE_FILE = "target/performance-account-info.yaml";
+
+    private static final File DEFAULT_STORE_FILE = AccountStore.getInstance().getStoreFile();
+
+    private int accounts;
+
+    private int count;
+
+    private int errors;
+
+    private long elapsedNanos;
+
+    private long p99Nanos;
+
+    private long maxNanos;
+
+    private long startWrites;
+
+    private static void setDefaultPolicy() {
+        Map<String, Object> passwordPolicy = new HashMap<>();
+        passwordPolicy.put("minLength", Integer.valueOf(8));
+        PasswordPolicyValidator.setDefaultPolicy(passwordPolicy);
+    }
+
+    private Map<String, String> options() {
+        Map<String, String> options = new HashMap<>();
+        options.put("accounts", String.valueOf(accounts));
+        options.put("storeFile", STORE_FILE);
+        return options;
+    }
+
+    @After
+    public void restoreStoreFile() {
+        AccountStore.getInstance().setStoreFile(DEFAULT_STORE_FILE);
+        new File(STORE_FILE).delete();
+        new File(STORE_FILE + ".snapshot").delete();
+    }
+
+    @Given("a store with {int} accounts")
+    public void seedStore(int accounts) throws PasswordValidationException {
+        setDefaultPolicy();
+        this.accounts = accounts;
+        new LoadGenerator(options()).seed();
+        AccountStore store = AccountStore.getInstance();
+        // Make the scenario start from the file, not from what addAccounts() left in memory.
+        store.resetStore();
+        assertEquals(accounts, store.getAccounts().size());
+    }
+
+    /**
+     * Run count operations of one kind (a LoadGenerator mix name) against the seeded store.
+     */
+    private void run(int threads, int count, String mix, LoadGenerator.Operation operation) throws InterruptedException {
+        Map<String, String> options = options();
+        options.put("threads", String.valueOf(threads));
+        options.put("operations", String.valueOf(count));
+        options.put("mix", mix + ":1");
+        startWrites = AccountStore.getInstance().getWriteCount();
+        LoadGenerator.Report report = new LoadGenerator(options).measure();
+        LoadGenerator.Result result = report.results.get(operation);
+        this.count = result.count;
+        errors = result.errors;
+        elapsedNanos = report.elapsedNanos;
+        p99Nanos = result.p99;
+        maxNanos = result.max;
+    }
+
+    @When("{int} threads perform {int} logins")
+    public void performLogins(int threads, int count) throws InterruptedException {
+        run(threads, count, "good", LoadGenerator.Operation.GOOD_LOGIN);
+        report("login");
+    }
+
+    @When("{int} threads perform {int} account lookups")
+    public void performLookups(int threads, int count) throws InterruptedException {
+        run(threads, count, "lookup", LoadGenerator.Operation.LOOKUP);
+        report("lookup");
+    }
+
+    @When("I bulk disable the accounts matching {string}")
+    public void bulkDisable(String criteria) {
+        Map<String, String> options = new HashMap<>();
+        String[] parts = criteria.split("=", 2);
+        options.put(parts[0], parts.length > 1 ? parts[1] : "");
+        AccountFilter filter = AccountFilter.fromOptions(options);
+        startWrites = AccountStore.getInstance().getWriteCount();
+        long start = System.nanoTime();
+        int matched = AccountStore.getInstance().bulkUpdate(filter, user -> user.enabled = false, false);
+        elapsedNanos = System.nanoTime() - start;
+        count = 1;
+        p99Nanos = maxNanos = elapsedNanos;
+        errors = matched == 0 ? 1 : 0;
+        report("bulk");
+    }
+
+    private void report(String name) {
+        System.out.println(String.format(Locale.US, "%s: %d operations in %.1f ms (%.1f ops/sec), p99 %.2f ms, max %.2f ms, %d errors, %d store writes",
+                                         name, count, elapsedNanos / 1e6, count * 1e9 / elapsedNanos,
+                                         p99Nanos / 1e6, maxNanos / 1e6,
+                                         errors, AccountStore.getInstance().getWriteCount() - startWrites));
+    }
+
+    @Then("p99 {word} latency is under {int} ms")
+    public void checkP99(String name, int limit) {
+        double p99 = p99Nanos / 1e6;
+        assertTrue(p99 < limit, "p99 " + name + " latency was " + p99 + " ms, the limit is " + limit + " ms.");
+    }
+
+    @Then("there were no errors")
+    public void checkErrors() {
+        assertEquals(0, errors, "Operations that failed");
+    }
+
+    @Then("the store file was written at most {int} times")
+    public void checkWrites(int limit) {
+        long writes = AccountStore.getInstance().getWriteCount() - startWrites;
+        assertTrue(writes <= limit, "The store file was written " + writes + " times, the limit is " + limit + ".");
+    }
+}
@@ -0,0 +1,21 @@
+package performance;
+
+import org.junit.platform.suite.api.ConfigurationParameter;
+import org.junit.platform.suite.api.IncludeEngines;
+import org.junit.platform.suite.api.SelectClasspathResource;
+import org.junit.platform.suite.api.Suite;
+
+import static io.cucumber.junit.platform.engine.Constants.GLUE_PROPERTY_NAME;
+import static io.cucumber.junit.platform.engine.Constants.PLUGIN_PROPERTY_NAME;
+
+/**
+ * The performance scenarios. These take minutes rather than seconds, so they
+ * aren't part of the default build. Run them with mvn -Pperformance test.
+ */
+@Suite
+@IncludeEngines("cucumber")
+@SelectClasspathResource("performance")
+@ConfigurationParameter(key = GLUE_PROPERTY_NAME, value = "performance")
+@ConfigurationParameter(key = PLUGIN_PROPERTY_NAME, value = "pretty")
+public class RunPerformanceTest {
+}
@@ -0,0 +1,30 @@
+Feature: Argon2 Tests
+  The in-project Argon2id implementation matches the standard and Password4J
+
+  Scenario: RFC 9106 Argon2id test vector
+    When I compute a 32 byte Argon2id tag with m=32, t=3, p=4 for password "0101010101010101010101010101010101010101010101010101010101010101", salt "02020202020202020202020202020202", secret "0303030303030303" and data "040404040404040404040404"
+    Then the hash will be "0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659"
+
+  Scenario: Reference implementation test vector
+    Then Argon2 will accept the password "password" for the hash "$argon2id$v=19$m=65536,t=2,p=1$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc"
+
+  Scenario: Hashes with too high a memory cost, parallelism or iteration count aren't checked
+    Then Argon2 will refuse to check the password "password" for the hash "$argon2id$v=19$m=16777215,t=2,p=1$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc"
+    And Argon2 will refuse to check the password "password" for the hash "$argon2id$v=19$m=1048580,t=2,p=1$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc"
+    And Argon2 will refuse to check the password "password" for the hash "$argon2id$v=19$m=8,t=1,p=2000000$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc"
+    And Argon2 will refuse to check the password "password" for the hash "$argon2id$v=19$m=8,t=999999999,p=1$c29tZXNhbHQ$CTFhFdXPJO1aFaMaO6Mm5c8y7cJHAph8ArZWb2GRPPc"
+
+  Scenario: Password4J hashes can be checked
+    When I hash the password "Krabby Patty formula" with password4j
+    Then Argon2 will accept the password "Krabby Patty formula"
+    And Argon2 will reject the password "Krabby Patty Formula"
+
+  Scenario: Hashes can be checked by Password4J
+    When I hash the password "Pineapple under the sea ☀" with Argon2
+    Then password4j will accept the password "Pineapple under the sea ☀"
+    And password4j will reject the password "Pineapple under the sea"
+    And Argon2 will accept the password "Pineapple under the sea ☀"
+
+  Scenario: The vector compression function matches the scalar one
+    Skipped unless the runtime is JDK 17 or later with jdk.incubator.vector and 256 bit vectors.
+    Then the scalar and vector compression functions give the same tags for 100 random inputs
@@ -0,0 +1,24 @@
+Feature: Audit Tests
+  Authentication events are written to the audit log
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Lock out an account after too many bad logins
+    When I create a user named "plankton" with full name "Sheldon Plankton" and email "plankton@chumbucket.com"
+    And I verify the password "SecretFormula" for user "plankton" 3 times with a limit of 3 bad logins
+    Then the user "plankton" will be disabled
+    And the audit log will contain "LOGIN_FAILURE" for user "plankton"
+    And the audit log will contain "ACCOUNT_LOCKOUT" for user "plankton"
+    And the audit log will not contain "ACCOUNT_DISABLE" for user "plankton"
+
+  Scenario: Changing the password of a disabled account isn't a failed login
+    When I change the password for user "plankton" to "KrabbyPatty1"
+    Then the result will be "false"
+    And the audit log will not contain "LOGIN_FAILURE" for user "plankton"
+
+  Scenario: Delete the locked account
+    When I delete the user "plankton"
+    Then the audit log will contain "ACCOUNT_DELETE" for user "plankton"
@@ -0,0 +1,33 @@
+Feature: Backup Tests
+  The store can be backed up while it's in use, and the backup verified and restored
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: A backup can be verified and restored
+    When I create a user named "krabs" with password "MoneyMoney"
+    And I back up the store to "target/backup-test.gz"
+    Then the backup "target/backup-test.gz" is good and has 1 accounts
+    When I delete the user "krabs"
+    Then the user "krabs" should not be found in the credential system.
+    When I restore the store from "target/backup-test.gz"
+    And I reset the credential cache
+    And I verify the password "MoneyMoney" for user "krabs"
+    Then the result will be "true"
+
+  Scenario: A backup taken during logins is complete
+    When I back up the store to "target/backup-test.gz" while 100 logins for user "krabs" with password "MoneyMoney" run
+    Then 100 of the pipeline logins succeeded
+    And the backup "target/backup-test.gz" is good and has 1 accounts
+
+  Scenario: A damaged backup is rejected
+    When I damage byte 40 of "target/backup-test.gz"
+    Then the backup "target/backup-test.gz" is rejected
+    And restoring the store from "target/backup-test.gz" fails
+    And user "krabs" exists in the credential system.
+
+  Scenario: Delete the backup user
+    When I delete the user "krabs"
+    Then the user "krabs" should not be found in the credential system.
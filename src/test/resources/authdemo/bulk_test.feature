@@ -0,0 +1,56 @@
+Feature: Bulk Operation Tests
+  Operations applied to every account matching a filter
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Disable accounts in a domain
+    When I create a user named "mrs.puff" with full name "Mrs Puff" and email "puff@boatingschool.org"
+    And I create a user named "squidward" with full name "Squidward Tentacles" and email "squidward@krustykrab.com"
+    And I create a user named "eugene" with full name "Eugene Krabs" and email "krabs@KrustyKrab.com"
+    And I bulk "disable" the accounts matching "emailDomain=krustykrab.com" as a dry run
+    Then 2 accounts matched the bulk operation
+    And the user "squidward" will be enabled
+    When I bulk "disable" the accounts matching "emailDomain=krustykrab.com"
+    Then 2 accounts matched the bulk operation
+    And the store file was written 1 time by the bulk operation
+    And the user "squidward" will be disabled
+    And the user "eugene" will be disabled
+    And the user "mrs.puff" will be enabled
+
+  Scenario: Delete disabled accounts
+    When I bulk "delete" the accounts matching "enabled=false"
+    Then 2 accounts matched the bulk operation
+    And I reset the credential cache
+    Then the user "squidward" should not be found in the credential system.
+    And the user "eugene" should not be found in the credential system.
+
+  Scenario: Criteria without a value are rejected
+    Then the bulk criteria "userNamePrefix" are rejected
+    And the bulk criteria "emailDomain=" are rejected
+    And the bulk criteria "enabled=true minBadLoginCount" are rejected
+    And the bulk criteria "inactiveDays=soon" are rejected
+    And the bulk criteria "fullName=Squidward" are rejected
+
+  Scenario: Misspelled criteria are rejected rather than ignored
+    Then the bulk criteria "userNamePrefx=tmp enabled=false" are rejected
+    And the bulk criteria "enabled=false dryrun" are rejected
+
+  Scenario: Invalid criteria values are rejected
+    Then the bulk criteria "enabled=yes" are rejected
+    And the bulk criteria "enabled=ture" are rejected
+    And the bulk criteria "enabled=1" are rejected
+    And the bulk criteria "inactiveDays=-1" are rejected
+
+  Scenario: A password change counts as activity, as it does for the cold tier
+    Given user "mrs.puff" last signed in 400 days ago and changed their password 10 days ago
+    When I bulk "disable" the accounts matching "inactiveDays=365" as a dry run
+    Then 0 accounts matched the bulk operation
+    When I bulk "disable" the accounts matching "inactiveDays=5" as a dry run
+    Then 1 accounts matched the bulk operation
+
+  Scenario: Remove the remaining user
+    When I bulk "delete" the accounts matching "all"
+    Then 1 accounts matched the bulk operation
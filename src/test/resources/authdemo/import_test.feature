@@ -0,0 +1,59 @@
+Feature: Import Tests
+  Bulk import of accounts
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Import accounts from a CSV file
+    When I import these CSV accounts:
+      """
+      userName,fullName,emailAddress,password,passwordHash
+      gary,Gary the Snail,gary@bikinibottom.org,MeowMeowMeow,
+      larry,"Larry ""The"" Lobster, Esq.",larry@bikinibottom.org,short,
+      gary,Duplicate Gary,,MeowMeowMeow,
+      pearl,Pearl Krabs,pearl@bikinibottom.org,,"$argon2id$v=19$m=12,t=20,p=2$VSxLcO+/vS0n77+9ACx077+977+9BSzvv70$5q9sOUSkBT3M56HrToLF77vYf1GCJi5JNDzy+yDXVQA"
+      plankton,,,,$argon2id$v=19$m=12
+      """
+    Then 2 accounts were imported with 3 errors
+    And the audit log will contain "ACCOUNT_ADD" for user "gary"
+    And the audit log will not contain "PASSWORD_CHANGE" for user "gary"
+    And the audit log will not contain "PASSWORD_CHANGE" for user "larry"
+    And I reset the credential cache
+    When I verify the password "WhaleOfATime" for user "pearl"
+    Then the result will be "true"
+    When I verify the password "MeowMeowMeow" for user "gary"
+    Then the result will be "true"
+
+  Scenario: Import accounts from a JSON-lines file
+    When I import these JSON-lines accounts:
+      """
+      {"userName": "karen", "fullName": "Karen Plankton", "password": "ComputerWife", "enabled": false}
+      {"userName": "gary", "password": "MeowMeowMeow"}
+      {"fullName": "No Name", "password": "Anonymous1"}
+      not json
+      """
+    Then 1 accounts were imported with 3 errors
+    And the user "karen" will be disabled
+
+  Scenario: Importing the name of a cold account doesn't bring it back
+    Given user "gary" last signed in 400 days ago
+    When accounts not used for 365 days are demoted in batches of 10
+    Then 1 accounts were demoted
+    When I import these JSON-lines accounts:
+      """
+      {"userName": "gary", "password": "MeowMeowMeow"}
+      {"userName": "patrick", "password": "StarfishRock"}
+      """
+    Then 1 accounts were imported with 1 errors
+    And the import wrote the store file 1 time
+    And there are 3 hot and 1 cold accounts
+
+  Scenario: Remove the imported users
+    When I delete the user "gary"
+    And I delete the user "pearl"
+    And I delete the user "karen"
+    And I delete the user "patrick"
+    And I reset the credential cache
+    Then the user "gary" should not be found in the credential system.
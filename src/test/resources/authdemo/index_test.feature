@@ -0,0 +1,36 @@
+Feature: Index Tests
+  Account lookups by email address and name prefix
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Find a user by email address
+    When I create a user named "patrick" with full name "Patrick Star" and email "Patrick.Star@BikiniBottom.org"
+    Then searching for email " patrick.star@bikinibottom.org" finds "patrick"
+
+  Scenario: Find users by prefix
+    When I create a user named "sandy" with full name "Sandy Cheeks" and email "sandy@treedome.org"
+    Then searching for prefix "CHE" finds "sandy"
+    And searching for prefix "pat" finds "patrick"
+    And searching for prefix "star" finds "patrick"
+    And searching for prefix "squid" finds nothing
+
+  Scenario: Index follows updates
+    Given user "patrick" exists in the credential system.
+    When I change the email address for user "patrick" to "patrick@rock.org"
+    Then searching for email "patrick@rock.org" finds "patrick"
+    And searching for email "patrick.star@bikinibottom.org" finds nothing
+
+  Scenario: Index follows deletes
+    When I delete the user "sandy"
+    Then searching for prefix "sandy" finds nothing
+    And I reset the credential cache
+    Then searching for prefix "cheeks" finds nothing
+    And searching for email "patrick@rock.org" finds "patrick"
+
+  Scenario: Remove the test users
+    When I delete the user "patrick"
+    And I reset the credential cache
+    Then the user "patrick" should not be found in the credential system.
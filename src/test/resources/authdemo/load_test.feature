@@ -0,0 +1,6 @@
+Feature: Load Generator Tests
+  The load generator runs a mix of logins, password changes and admin operations from several threads
+
+  Scenario: A short load test has no errors
+    When I run a load test with 20 accounts, 4 threads and 200 operations
+    Then 200 load test operations ran with an error rate of 0%
@@ -0,0 +1,43 @@
+Feature: Store Loader Tests
+  The store file is read from the YAML parse events, and with yaml.load() if that can't read it
+
+  Scenario: A store written by AccountStore is streamed
+    When the store file "target/loader-test.yaml" contains:
+      """
+      !!com.mhsoftware.authdemo.AccountStore$Store
+      nextUserID: 3
+      users:
+      - {badLoginCount: 2, emailAddress: sandy@treedome.org, enabled: true, fullName: Sandy
+          Cheeks, lastBadSignin: null, lastSignin: !!timestamp '2021-12-10T17:00:00Z', password: null,
+        pwdChangeDate: !!timestamp '2021-12-10T17:00:00Z', userID: 1, userName: sandy}
+      - {badLoginCount: 0, emailAddress: null, enabled: false, fullName: null, lastBadSignin: null,
+        lastSignin: null, password: null, pwdChangeDate: null, userID: 2, userName: squidward}
+      """
+    Then the store file "target/loader-test.yaml" is read by the streaming loader, with 2 accounts and nextUserID 3
+
+  Scenario: A store with an alias is read with yaml.load()
+    When the store file "target/loader-test.yaml" contains:
+      """
+      !!com.mhsoftware.authdemo.AccountStore$Store
+      nextUserID: 3
+      users:
+      - badLoginCount: 2
+        fullName: Sandy Cheeks
+        enabled: true
+        lastSignin: &changed 2021-12-10T17:00:00Z
+        pwdChangeDate: *changed
+        userID: 1
+        userName: sandy
+      """
+    Then the store file "target/loader-test.yaml" is read by the yaml loader, with 1 accounts and nextUserID 3
+
+  Scenario: A nextUserID the streaming loader can't read is read with yaml.load()
+    When the store file "target/loader-test.yaml" contains:
+      """
+      !!com.mhsoftware.authdemo.AccountStore$Store
+      nextUserID: 0x10
+      users:
+      - {badLoginCount: 2, fullName: Sandy Cheeks, enabled: true, lastSignin: 2021-12-10T17:00:00Z,
+        pwdChangeDate: 2021-12-10T17:00:00Z, userID: 1, userName: sandy}
+      """
+    Then the store file "target/loader-test.yaml" is read by the yaml loader, with 1 accounts and nextUserID 16
@@ -0,0 +1,44 @@
+Feature: Login Pipeline Tests
+  Logins through LoginPipeline check the password on a separate pool and batch the store writes
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Good logins are batched
+    When I create a user named "larry" with password "LarryTheLobster"
+    And 50 logins for user "larry" with password "LarryTheLobster" go through the login pipeline
+    Then 50 of the pipeline logins succeeded
+    And the login pipeline wrote the store file fewer than 50 times
+    And the bad login count for user "larry" will be "zero".
+
+  Scenario: Bad and unknown logins fail
+    When 5 logins for user "larry" with password "LarryTheCrab" go through the login pipeline
+    Then 0 of the pipeline logins succeeded
+    And the bad login count for user "larry" will be 5.
+    When 5 logins for user "nobody" with password "LarryTheLobster" go through the login pipeline
+    Then 0 of the pipeline logins succeeded
+
+  Scenario: Concurrent bad logins lock the account out once
+    When I create a user named "sandy" with password "SquirrelCheeks"
+    And 20 logins for user "sandy" with password "SquirrelTail" go through the login pipeline with a limit of 3 bad logins
+    Then 0 of the pipeline logins succeeded
+    And the user "sandy" will be disabled
+    And the bad login count for user "sandy" will be 3.
+    And the audit log will contain 1 "ACCOUNT_LOCKOUT" event for user "sandy"
+    When 1 logins for user "sandy" with password "SquirrelCheeks" go through the login pipeline
+    Then 0 of the pipeline logins succeeded
+
+  Scenario: Deleting an account during its logins only fails those logins
+    When I create a user named "patrick" with password "StarfishRock"
+    And 10 pipeline logins each for "patrick" with password "StarfishRock" and "larry" with password "LarryTheLobster" are in flight when "patrick" is deleted
+    Then 10 of the pipeline logins succeeded
+    And the user "patrick" should not be found in the credential system.
+    And the bad login count for user "larry" will be 0.
+
+  Scenario: Delete the pipeline users
+    When I delete the user "larry"
+    And I delete the user "sandy"
+    Then the user "larry" should not be found in the credential system.
+    And the user "sandy" should not be found in the credential system.
@@ -0,0 +1,38 @@
+Feature: Password Policy Tests
+  Password policies are loaded from a file and swapped in atomically when it changes
+
+  Scenario: Load policies from a file
+    Given a password policy file with a minimum length of 12 and a lockout after 5 bad logins
+    Then a password of 10 characters is accepted by the authentication provider
+    When I load the password policy file
+    Then the default policy requires 12 characters and locks out after 0 bad logins
+    And the lockout policy requires 12 characters and locks out after 5 bad logins
+    And a password of 10 characters is rejected by the authentication provider
+    And a password of 12 characters is accepted by the authentication provider
+
+  Scenario: An invalid policy file leaves the current policies alone
+    Given a password policy file with a minimum length of 10 and a lockout after 3 bad logins
+    When I load the password policy file
+    And I change the password policy file to "default:\n  minLength: 6\n  maxAge: 90\n"
+    Then loading the password policy file fails
+    And the password policy version has not changed
+    And the default policy requires 10 characters and locks out after 0 bad logins
+    When I change the password policy file to "lockout:\n  maxBadLogins: 3\n"
+    Then loading the password policy file fails
+    When I change the password policy file to "default: [ minLength"
+    Then loading the password policy file fails
+    And the password policy version has not changed
+
+  Scenario: A watched policy file is reloaded when it changes
+    Given a password policy file with a minimum length of 8 and a lockout after 3 bad logins
+    When I load the password policy file
+    And I watch the password policy file
+    And I change the password policy file to "default:\n  minLength: 14\n"
+    Then within 30 seconds the default policy requires 14 characters
+    And a password of 13 characters is rejected by the authentication provider
+
+  Scenario: Validators never see a mix of two policy versions
+    Given a password policy file with a minimum length of 8 and a lockout after 8 bad logins
+    When I load the password policy file
+    And 4 threads check the lockout policy while it is reloaded 500 times
+    Then no thread saw a mix of two policy versions
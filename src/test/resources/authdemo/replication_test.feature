@@ -0,0 +1,28 @@
+Feature: Replication Tests
+  A replica store connected to a primary over a loopback socket, in the same JVM, gets a snapshot of the
+  primary's store, and then each change as it's made
+
+  Scenario: A replica follows the primary
+    Given a primary store serving replicas
+    When I add user "sandy" with password "KarateChop" to the primary
+    And I add user "larry" with password "PumpItUp!" to the primary
+    And a replica connects to the primary
+    Then within 5 seconds the replica has the same 2 accounts as the primary
+    And the replica has received 1 snapshot
+    When I add user "gary" with password "MeowMeowMeow" to the primary
+    And I delete user "larry" from the primary
+    Then within 5 seconds the replica has the same 2 accounts as the primary
+    And the replica has received 1 snapshot
+    And adding user "plankton" to the replica fails
+
+  Scenario: A login on a replica doesn't change the replica's copy of the account
+    Given a primary store serving replicas
+    When I add user "sandy" with password "KarateChop" to the primary
+    And a replica connects to the primary
+    Then within 5 seconds the replica has the same 1 accounts as the primary
+    When I log in to the replica as "sandy" with password "Wrong-Password" and a limit of 1 bad logins
+    Then the result will be "false"
+    And user "sandy" on the replica is enabled with no bad logins
+    When I log in to the replica as "sandy" with password "KarateChop" and a limit of 1 bad logins
+    Then the result will be "true"
+    And within 5 seconds the replica has the same 1 accounts as the primary
@@ -0,0 +1,22 @@
+Feature: Store Snapshot Tests
+  A binary snapshot of the store is used instead of the YAML while it's up to date
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: An unchanged store is read from the snapshot
+    When I create a user named "pearl" with full name "PearlKrabs" and email "pearl@krustykrab.com"
+    Then the store will be read from the snapshot
+    And the full name of user "pearl" will be "PearlKrabs"
+
+  Scenario: A store file changed behind the snapshot's back is read from the YAML
+    When I change "PearlKrabs" to "PearlWhale" in the store file, keeping its time and length
+    Then the store will be read from the yaml
+    And the full name of user "pearl" will be "PearlWhale"
+    And the store will be read from the snapshot
+
+  Scenario: Delete the snapshot user
+    When I delete the user "pearl"
+    Then the user "pearl" should not be found in the credential system.
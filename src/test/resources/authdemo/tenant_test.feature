@@ -0,0 +1,56 @@
+Feature: Tenant Tests
+  Each tenant has its own store and password policy, and shares the login threads with the other tenants
+
+  Scenario: Tenants have separate stores
+    Given a new tenant directory with a limit of 3 accounts per tenant
+    When I add user "sandy" with password "SandyCheeks" to tenant "bikini"
+    And I add user "sandy" with password "SandyTexas" to tenant "treedome"
+    Then tenant "bikini" has 1 accounts
+    And tenant "treedome" has 1 accounts
+    And 3 of 3 logins for user "sandy" with password "SandyCheeks" to tenant "bikini" succeed
+    And 0 of 3 logins for user "sandy" with password "SandyCheeks" to tenant "treedome" succeed
+    And 0 of 1 logins for user "sandy" with password "SandyCheeks" to the default store succeed
+
+  Scenario: A tenant can't go over its account limit
+    Given a new tenant directory with a limit of 2 accounts per tenant
+    When I add user "squidward" with password "Clarinet1" to tenant "bikini"
+    And I add user "squilliam" with password "Clarinet2" to tenant "bikini"
+    Then adding user "squeaky" with password "Clarinet3" to tenant "bikini" goes over the account limit
+    And tenant "bikini" has 2 accounts
+    When I add user "squeaky" with password "Clarinet3" to tenant "treedome"
+    Then tenant "treedome" has 1 accounts
+
+  Scenario: A tenant uses the password policy with its name
+    Given a password policy named "strict" requiring 12 characters
+    And a new tenant directory with a limit of 0 accounts per tenant
+    Then adding user "plankton" with password "Chumbucket" to tenant "strict" fails the password policy
+    When I add user "plankton" with password "Chumbucket" to tenant "bucket"
+    And I add user "plankton" with password "ChumbucketRules" to tenant "strict"
+    Then tenant "strict" has 1 accounts
+
+  Scenario: A tenant picks up a policy with its name that's added after it was opened
+    Given a new tenant directory with a limit of 0 accounts per tenant
+    When I add user "plankton" with password "Chumbucket" to tenant "lagoon"
+    And a password policy named "lagoon" requiring 12 characters
+    Then adding user "karen" with password "Computer1" to tenant "lagoon" fails the password policy
+    When I add user "karen" with password "ComputerWife" to tenant "lagoon"
+    Then tenant "lagoon" has 2 accounts
+
+  Scenario: A tenant can't use more than its share of the hashing threads
+    Given a new tenant directory with 4 hashing threads and a limit of 2 per tenant
+    When I add user "pearl" with password "WhaleOfATime" to tenant "krusty"
+    And user "pearl" in tenant "krusty" has password "WhaleOfATime" hashed with 16384 KiB of memory
+    Then 16 of 16 logins for user "pearl" with password "WhaleOfATime" to tenant "krusty" succeed
+    And tenant "krusty" had at most 2 password checks running at once
+
+  Scenario: Idle tenants are unloaded, and loaded again when they're used
+    Given a new tenant directory with a limit of 0 accounts per tenant
+    When I add user "gary" with password "MeowMeowMeow" to tenant "pineapple"
+    And the idle tenants are unloaded
+    Then tenant "pineapple" is not loaded
+    And 2 of 2 logins for user "gary" with password "MeowMeowMeow" to tenant "pineapple" succeed
+    And tenant "pineapple" is loaded
+
+  Scenario: Tenant names can't leave the tenant directory
+    Given a new tenant directory with a limit of 0 accounts per tenant
+    Then the tenant name "../bikini" is rejected
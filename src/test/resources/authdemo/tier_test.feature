@@ -0,0 +1,52 @@
+Feature: Tier Tests
+  Accounts that haven't been used for a while move to the cold tier, and come back when they're used
+
+  Scenario: Clear the store file
+    Given the store file was deleted
+    And I reset the credential cache
+    Then the result will be "true"
+
+  Scenario: Inactive accounts are demoted in batches
+    When I create a user named "mermaidman" with password "EvilRemembers"
+    And I create a user named "barnacleboy" with password "WetterBetter"
+    And I create a user named "patrick" with password "StarfishRock"
+    And user "mermaidman" last signed in 400 days ago
+    And user "barnacleboy" last signed in 400 days ago
+    And accounts not used for 365 days are demoted in batches of 1
+    Then 2 accounts were demoted
+    And there are 1 hot and 2 cold accounts
+    When I reset the credential cache
+    Then there are 1 hot and 2 cold accounts
+    And searching for prefix "barn" finds "barnacleboy"
+    And there are 1 hot and 2 cold accounts
+
+  Scenario: A cold account is promoted when it's used
+    When I verify the password "EvilRemembers" for user "mermaidman"
+    Then the result will be "true"
+    And there are 2 hot and 1 cold accounts
+    When I reset the credential cache
+    Then there are 2 hot and 1 cold accounts
+
+  Scenario: Bulk operations change cold accounts where they are
+    When I bulk "disable" the accounts matching "userNamePrefix=barnacle"
+    Then 1 accounts matched the bulk operation
+    And there are 2 hot and 1 cold accounts
+    When I reset the credential cache
+    Then the user "barnacleboy" will be disabled
+    And there are 3 hot and 0 cold accounts
+
+  Scenario: A deleted account doesn't come back from the cold file
+    Given user "mermaidman" last signed in 400 days ago
+    When accounts not used for 365 days are demoted in batches of 10
+    Then 2 accounts were demoted
+    And there are 1 hot and 2 cold accounts
+    When I delete the user "mermaidman"
+    And I reset the credential cache
+    Then the user "mermaidman" should not be found in the credential system.
+    And there are 1 hot and 1 cold accounts
+
+  Scenario: Delete the tier test users
+    When I delete the user "barnacleboy"
+    And I delete the user "patrick"
+    Then the user "barnacleboy" should not be found in the credential system.
+    And the user "patrick" should not be found in the credential system.
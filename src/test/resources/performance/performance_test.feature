@@ -0,0 +1,26 @@
+Feature: Performance Tests
+  Latency and store write limits for the common operations. The limits are
+  set for a small (1 or 2 core) build host, with room for the normal
+  variation between runs. A change that makes AccountStore or
+  AuthenticationProviderImpl noticeably slower should fail them.
+
+  Scenario: Logins against a small store
+    Given a store with 2000 accounts
+    When 4 threads perform 200 logins
+    Then there were no errors
+    And p99 login latency is under 4000 ms
+    And the store file was written at most 200 times
+
+  Scenario: Lookups against a large store
+    Given a store with 100000 accounts
+    When 8 threads perform 100000 account lookups
+    Then there were no errors
+    And p99 lookup latency is under 5 ms
+    And the store file was written at most 0 times
+
+  Scenario: Bulk disable on a large store
+    Given a store with 100000 accounts
+    When I bulk disable the accounts matching "userNamePrefix=load-user-1"
+    Then there were no errors
+    And p99 bulk latency is under 20000 ms
+    And the store file was written at most 1 times